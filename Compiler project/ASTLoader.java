@@ -1,81 +1,175 @@
-import org.w3c.dom.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
-    
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Rebuilds the syntax tree from syntax_tree.xml in one forward StAX pass.
+//
+// Nodes are added to an arena as their ROOT/IN/LEAF elements close. Each
+// CHILDREN list is kept as plain ints and linked once the whole file has been
+// read, so a later element with the same UNID replaces an earlier one before
+// any link is made, just as with the old DOM loader. A leaf has no token here;
+// its TERMINAL text is kept as its lexeme.
+
 public class ASTLoader {
-    private Map<Integer, Node> nodeMap = new HashMap<>();
-// Load the AST from an XML file
-public Node loadASTFromXML(String inputFileName) throws Exception {
-    DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-    DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-    Document doc = docBuilder.parse(new File(inputFileName));
 
-    //  Create and store the root node
-    Element rootElement = (Element) doc.getElementsByTagName("ROOT").item(0);
-    String rootUnidText = rootElement.getElementsByTagName("UNID").item(0).getTextContent().trim();
-    int rootUnid = Integer.parseInt(rootUnidText);
-    String rootSymb = rootElement.getElementsByTagName("SYMB").item(0).getTextContent().trim();
-    
-    Node rootNode = new Node(rootUnid, rootSymb);
-    nodeMap.put(rootUnid, rootNode);
-    System.out.println("Node added: UNID=" + rootUnid + ", SYMB=" + rootSymb);
+    private final boolean verbose;
 
-    // Process INNER NODES
-    NodeList inNodes = doc.getElementsByTagName("IN");
-    for (int i = 0; i < inNodes.getLength(); i++) {
-        Element inElement = (Element) inNodes.item(i);
-        String unidText = inElement.getElementsByTagName("UNID").item(0).getTextContent().trim();
-        int unid = Integer.parseInt(unidText);
+    // Pending links: parentUnid, childCount, childUnid... per CHILDREN element
+    private int[] links = new int[64];
+    private int linksSize;
 
-        String symb = inElement.getElementsByTagName("SYMB").item(0).getTextContent().trim();
-        Node node = new Node(unid, symb);
-        nodeMap.put(unid, node);
-        System.out.println("Added inner node: UNID=" + unid + ", SYMB=" + symb);
+    public ASTLoader() {
+        this(false);
     }
 
-    //  Process LEAF NODES
-    NodeList leafNodes = doc.getElementsByTagName("LEAF");
-    for (int i = 0; i < leafNodes.getLength(); i++) {
-        Element leafElement = (Element) leafNodes.item(i);
-        String unidText = leafElement.getElementsByTagName("UNID").item(0).getTextContent().trim();
-        int unid = Integer.parseInt(unidText);
-
-        String symb = leafElement.getElementsByTagName("TERMINAL").item(0).getTextContent().trim();
-        Node leafNode = new Node(unid, symb);
-        nodeMap.put(unid, leafNode);
-        System.out.println("Added leaf node: UNID=" + unid + ", SYMB=" + symb);
+    // verbose prints a line for every node and link, as the loader used to
+    public ASTLoader(boolean verbose) {
+        this.verbose = verbose;
     }
 
-    // Link children to their parents
-    NodeList childrenElements = doc.getElementsByTagName("CHILDREN");
-    for (int i = 0; i < childrenElements.getLength(); i++) {
-        Element childrenElement = (Element) childrenElements.item(i);
-        // Get the parent UNID from the element that contains the CHILDREN
-        Element parentElement = (Element) childrenElement.getParentNode();
-        String parentUnidText = parentElement.getElementsByTagName("UNID").item(0).getTextContent().trim();
-        int parentUnid = Integer.parseInt(parentUnidText);
-        Node parentNode = nodeMap.get(parentUnid);
-        if (parentNode == null) {
-            throw new IllegalStateException("Parent node with UNID " + parentUnid + " not found in the node map");
+    // Load the AST from an XML file
+    public SyntaxTree loadASTFromXML(String inputFileName) throws Exception {
+        Ast ast = new Ast(null);
+        IntMap<Integer> nodeMap = new IntMap<>(); // UNID to arena node
+        int rootNode = -1;
+        linksSize = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(inputFileName)), 1 << 16)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+            // Element being read (ROOT, IN or LEAF) and what it held so far
+            String record = null;
+            int unid = 0;
+            boolean hasUnid = false;
+            String symb = null;
+            int childrenStart = -1;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "ROOT", "IN", "LEAF" -> {
+                            record = reader.getLocalName();
+                            hasUnid = false;
+                            symb = null;
+                        }
+                        case "UNID" -> {
+                            int value = Integer.parseInt(reader.getElementText().trim());
+                            if (!hasUnid) {
+                                unid = value;
+                                hasUnid = true;
+                            }
+                        }
+                        case "SYMB", "TERMINAL" -> {
+                            String text = reader.getElementText().trim();
+                            if (symb == null) {
+                                symb = text;
+                            }
+                        }
+                        case "CHILDREN" -> {
+                            // The parent UNID is filled in when the record closes
+                            childrenStart = linksSize;
+                            addLink(0);
+                            addLink(0);
+                        }
+                        case "ID" -> {
+                            if (childrenStart >= 0) {
+                                addLink(Integer.parseInt(reader.getElementText().trim()));
+                                links[childrenStart + 1]++;
+                            }
+                        }
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "CHILDREN" -> {
+                            if (record != null) {
+                                links[childrenStart] = unid;
+                            }
+                            childrenStart = -1;
+                        }
+                        case "ROOT", "IN", "LEAF" -> {
+                            int node;
+                            if (record.equals("ROOT")) {
+                                if (rootNode >= 0) {
+                                    record = null;
+                                    continue;
+                                }
+                                node = ast.addSymbol(unid, symb, -1, (byte) 0);
+                                rootNode = node;
+                                log("Node added: UNID=" + unid + ", SYMB=" + symb);
+                            } else if (record.equals("IN")) {
+                                node = ast.addSymbol(unid, symb, -1, Ast.LISTED);
+                                log("Added inner node: UNID=" + unid + ", SYMB=" + symb);
+                            } else {
+                                node = ast.addSymbol(unid, symb, -1, Ast.LEAF);
+                                log("Added leaf node: UNID=" + unid + ", SYMB=" + symb);
+                            }
+                            nodeMap.put(unid, node);
+                            record = null;
+                        }
+                        default -> {
+                        }
+                    }
+                }
+            }
+            reader.close();
+        }
+        if (rootNode < 0) {
+            throw new IllegalStateException("No ROOT element in " + inputFileName);
         }
 
-        NodeList childIdList = childrenElement.getElementsByTagName("ID");
-        for (int j = 0; j < childIdList.getLength(); j++) {
-            String childUnidText = childIdList.item(j).getTextContent().trim();
-            int childUnid = Integer.parseInt(childUnidText);
-            Node childNode = nodeMap.get(childUnid);
-            if (childNode == null) {
-                throw new IllegalStateException("Child node with UNID " + childUnid + " not found in the node map");
+        // Link children to their parents
+        Ast.Appender children = ast.appender();
+        int i = 0;
+        while (i < linksSize) {
+            int parentUnid = links[i];
+            int count = links[i + 1];
+            i += 2;
+            Integer parentNode = nodeMap.get(parentUnid);
+            if (parentNode == null) {
+                throw new IllegalStateException("Parent node with UNID " + parentUnid + " not found in the node map");
+            }
+            for (int end = i + count; i < end; i++) {
+                Integer childNode = nodeMap.get(links[i]);
+                if (childNode == null) {
+                    throw new IllegalStateException("Child node with UNID " + links[i] + " not found in the node map");
+                }
+                if (ast.is(parentNode, NodeKind.SHARED)) {
+                    ast.share(parentNode, childNode);
+                } else {
+                    children.append(parentNode, childNode);
+                }
+                log("Linked child node: PARENT_UNID=" + parentUnid + ", CHILD_UNID=" + links[i]);
             }
-            parentNode.addChild(childNode);
-            System.out.println("Linked child node: PARENT_UNID=" + parentUnid + ", CHILD_UNID=" + childUnid);
         }
+        return new SyntaxTree(ast, rootNode);
     }
 
-    return rootNode; 
-}
+    // Load the AST from the binary tree file and the token file it refers to
+    public SyntaxTree loadASTFromBinary(String treeFileName, String tokensFileName) throws Exception {
+        SyntaxTree tree = BinaryFormat.readTree(treeFileName).toSyntaxTree(BinaryFormat.readTokens(tokensFileName));
+        if (tree == null) {
+            throw new IllegalStateException("No ROOT record in " + treeFileName);
+        }
+        return tree;
+    }
+
+    private void addLink(int value) {
+        if (linksSize == links.length) {
+            links = Arrays.copyOf(links, links.length * 2);
+        }
+        links[linksSize++] = value;
+    }
 
+    private void log(String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
 }
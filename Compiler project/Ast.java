@@ -0,0 +1,660 @@
+import java.util.Arrays;
+
+// Arena holding the nodes of a syntax tree in parallel arrays.
+//
+// A node is an index into the arrays. Each node has a NodeKind and flags
+// (packed into one byte), a parent, a first child and a next sibling, and one
+// int slot: the index of its token for a leaf, the node it repeats for a
+// SHARED node, or its lexeme. A child list is a chain of next-sibling links,
+// so adding a child costs nothing beyond the node itself. Nodes are kept in
+// the order they were added.
+//
+// Unids are not stored while they follow the parser's numbering, where node i
+// (after the root) has unid i + c for a fixed c; the first node that does not
+// makes the arena keep every unid in an array from then on.
+//
+// -1 stands for "no node" (and "no token"). A node with no parent is either the
+// root or detached (the parser's COND nodes are).
+//
+// A tree can share an expression between parents (see AstCompactor): a SHARED
+// node, which has no children, repeats the node held in its slot, and
+// canonical() follows it. Shared expressions can carry a structural hash.
+//
+// The type checker annotates the nodes it gives a type (see valueType).
+
+public final class Ast {
+
+    // Node flags
+    static final byte LEAF = 1;
+    // Written as an IN record of syntax_tree.xml (see SyntaxTree.toXML)
+    static final byte LISTED = 2;
+    // Replaced by an incremental re-parse and no longer reachable
+    static final byte RETIRED = 4;
+
+    // The kind ordinal takes the low bits of a node's byte, the flags the rest
+    private static final int KIND_BITS = 5;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    private static final int SHARED = NodeKind.SHARED.ordinal();
+
+    static {
+        if (NodeKind.values().length > KIND_MASK + 1) {
+            throw new AssertionError("NodeKind does not fit in " + KIND_BITS + " bits");
+        }
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private TokenBuffer tokens;
+    // Lexemes are interned, so each distinct one is kept once per tree
+    private final NamePool lexemes = new NamePool();
+
+    private int size;
+    private int retired;
+    private byte[] kinds;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    // Token index of a leaf (-1 if it has none), the node a SHARED node
+    // repeats, or -2 - lexeme id for a node with a lexeme; -1 otherwise
+    private int[] slots;
+    // Unid of node 0, and c in unid = node + c for the others, while unids is
+    // null
+    private int firstUnid;
+    private int unidOffset;
+    private int[] unids;
+    // Structural hashes, allocated when the first one is set
+    private int[] hashes;
+    // Type ordinal + 1 of each node (0 for none), allocated when the first
+    // type is set
+    private byte[] valueTypes;
+
+    // tokens gives the text of leaves added with a token index; it may be null
+    // for a tree whose leaves carry their text as their kind (see ASTLoader)
+    public Ast(TokenBuffer tokens) {
+        this(tokens, 256);
+    }
+
+    public Ast(TokenBuffer tokens, int expectedSize) {
+        this.tokens = tokens;
+        int capacity = Math.max(16, expectedSize);
+        kinds = new byte[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        slots = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    // Point leaves at a new token buffer, after an edit has spliced it
+    public void setTokens(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    // Add a node with no parent yet; lexeme may be null, and only a node
+    // without a token can have one
+    public int add(int unid, NodeKind kind, String lexeme, int token, byte nodeFlags) {
+        if (lexeme != null && token >= 0) {
+            throw new IllegalArgumentException("Node " + unid + " has both token " + token + " and lexeme " + lexeme);
+        }
+        if (size == kinds.length) {
+            grow();
+        }
+        int node = size++;
+        setUnid(node, unid);
+        kinds[node] = (byte) (kind.ordinal() | nodeFlags << KIND_BITS);
+        parents[node] = -1;
+        firstChildren[node] = -1;
+        nextSiblings[node] = -1;
+        slots[node] = lexeme != null ? lexemeSlot(lexeme) : token;
+        if (hashes != null) {
+            hashes[node] = 0;
+        }
+        if (valueTypes != null) {
+            valueTypes[node] = 0;
+        }
+        return node;
+    }
+
+    private void setUnid(int node, int unid) {
+        if (unids == null) {
+            if (node == 0) {
+                firstUnid = unid;
+                return;
+            }
+            if (node == 1) {
+                unidOffset = unid - 1;
+                return;
+            }
+            if (unid == node + unidOffset) {
+                return;
+            }
+            keepUnids();
+        }
+        unids[node] = unid;
+    }
+
+    // Store the unids of the nodes so far, which is needed once they no longer
+    // follow from the node indexes
+    private void keepUnids() {
+        int[] kept = new int[kinds.length];
+        for (int node = 0; node < size; node++) {
+            kept[node] = unid(node);
+        }
+        unids = kept;
+    }
+
+    // Add a node read back from a file, given the symbol it was written with.
+    // A leaf without a token keeps its symbol, the terminal text, as lexeme.
+    public int addSymbol(int unid, String symbol, int token, byte nodeFlags) {
+        if ((nodeFlags & LEAF) != 0) {
+            return add(unid, NodeKind.LEAF, token < 0 ? symbol : null, token, nodeFlags);
+        }
+        NodeKind kind = NodeKind.forSymbol(symbol);
+        return add(unid, kind, symbol.equals(kind.name()) ? null : symbol, token, nodeFlags);
+    }
+
+    // Add an inner node as the last child of parent (none if parent is -1)
+    public int addNode(int unid, NodeKind kind, int parent, boolean listed) {
+        int node = add(unid, kind, null, -1, listed ? LISTED : 0);
+        if (parent >= 0) {
+            appendChild(parent, node);
+        }
+        return node;
+    }
+
+    // Add a node repeating target, with no parent yet
+    public int addShared(int unid, int target) {
+        return add(unid, NodeKind.SHARED, null, target, LISTED);
+    }
+
+    // Make a SHARED node read back from a file repeat target
+    public void share(int node, int target) {
+        if (kindOrdinal(node) != SHARED) {
+            throw new IllegalStateException("Node " + unid(node) + " is not SHARED");
+        }
+        slots[node] = target;
+    }
+
+    // The node a SHARED node repeats, or node itself
+    public int canonical(int node) {
+        return kindOrdinal(node) == SHARED ? slots[node] : node;
+    }
+
+    public void setHash(int node, int hash) {
+        if (hashes == null) {
+            hashes = new int[kinds.length];
+        }
+        hashes[node] = hash;
+    }
+
+    // Structural hash of node, or of the node it repeats; 0 if none was set
+    public int hash(int node) {
+        node = canonical(node);
+        return hashes == null ? 0 : hashes[node];
+    }
+
+    // Drop every type, making room for one per node, so that threads can set
+    // the types of different nodes at once
+    public void clearValueTypes() {
+        if (valueTypes == null || valueTypes.length < kinds.length) {
+            valueTypes = new byte[kinds.length];
+        } else {
+            Arrays.fill(valueTypes, (byte) 0);
+        }
+    }
+
+    // Make room for one type per node, keeping the types already set
+    public void reserveValueTypes() {
+        if (valueTypes == null) {
+            valueTypes = new byte[kinds.length];
+        } else if (valueTypes.length < kinds.length) {
+            valueTypes = Arrays.copyOf(valueTypes, kinds.length);
+        }
+    }
+
+    public void setValueType(int node, Type type) {
+        if (valueTypes == null) {
+            valueTypes = new byte[kinds.length];
+        }
+        valueTypes[node] = (byte) (type == null ? 0 : type.ordinal() + 1);
+    }
+
+    // Type the checker gave node, or the node it repeats; null if none
+    public Type valueType(int node) {
+        node = canonical(node);
+        return valueTypes == null || valueTypes[node] == 0 ? null : TYPES[valueTypes[node] - 1];
+    }
+
+    // Drop the nodes from node on, which must not be linked to older ones
+    public void truncate(int node) {
+        if (node < 0 || node > size) {
+            throw new IllegalArgumentException("Cannot truncate " + size + " nodes to " + node);
+        }
+        size = node;
+    }
+
+    // Add a leaf for tokens[token] as the last child of parent
+    public int addLeaf(int unid, int parent, int token) {
+        int node = add(unid, NodeKind.LEAF, null, token, LEAF);
+        appendChild(parent, node);
+        return node;
+    }
+
+    // Make child the last child of parent. Finding the last child walks the
+    // children parent already has, which the parser's right-nested lists keep
+    // short; a builder of long child lists uses an Appender.
+    public void appendChild(int parent, int child) {
+        link(parent, lastChild(parent), child);
+    }
+
+    private void link(int parent, int last, int child) {
+        if (parents[child] >= 0) {
+            throw new IllegalStateException("Node " + unid(child) + " already has parent " + unid(parents[child]));
+        }
+        parents[child] = parent;
+        if (last < 0) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[last] = child;
+        }
+    }
+
+    // Appends children in constant time by remembering the last child it gave
+    // each parent, for builders that make long child lists
+    public final class Appender {
+
+        // Last child + 1 of each parent, 0 if not known
+        private int[] lastChildren = new int[Math.max(16, size)];
+
+        public void append(int parent, int child) {
+            int last = -1;
+            if (firstChildren[parent] >= 0) {
+                last = parent < lastChildren.length ? lastChildren[parent] - 1 : -1;
+                // Nodes can be dropped and added again (see truncate), so a
+                // remembered child only counts if it is still the last one
+                if (last < 0 || last >= size || parents[last] != parent || nextSiblings[last] >= 0) {
+                    last = lastChild(parent);
+                }
+            }
+            link(parent, last, child);
+            if (parent >= lastChildren.length) {
+                lastChildren = Arrays.copyOf(lastChildren, Math.max(parent + 1, lastChildren.length * 2));
+            }
+            lastChildren[parent] = child + 1;
+        }
+    }
+
+    public Appender appender() {
+        return new Appender();
+    }
+
+    // Copy nodes [top, other.size()) of another arena to the end of this one,
+    // with unidOffset added to their unids, and make the copy of top the last
+    // child of parent. The other nodes must be in top's subtree or detached.
+    // Returns the copy of top.
+    public int appendTree(Ast other, int top, int parent, int unidOffset) {
+        int base = size - top;
+        for (int node = top; node < other.size; node++) {
+            int token = other.kindOrdinal(node) == SHARED ? shifted(other.slots[node], base) : other.token(node);
+            int copy = add(other.unid(node) + unidOffset, other.kind(node), other.lexeme(node),
+                    token, (byte) ((other.kinds[node] & 0xff) >>> KIND_BITS));
+            if (other.hashes != null) {
+                setHash(copy, other.hashes[node]);
+            }
+            if (other.valueTypes != null) {
+                setValueType(copy, other.valueType(node));
+            }
+            parents[copy] = node == top ? -1 : shifted(other.parents[node], base);
+            firstChildren[copy] = shifted(other.firstChildren[node], base);
+            nextSiblings[copy] = node == top ? -1 : shifted(other.nextSiblings[node], base);
+        }
+        int copy = top + base;
+        appendChild(parent, copy);
+        return copy;
+    }
+
+    private static int shifted(int node, int base) {
+        return node < 0 ? -1 : node + base;
+    }
+
+    // Unlink and return the last child of parent
+    public int removeLastChild(int parent) {
+        int previous = -1;
+        int last = firstChildren[parent];
+        while (nextSiblings[last] >= 0) {
+            previous = last;
+            last = nextSiblings[last];
+        }
+        if (previous < 0) {
+            firstChildren[parent] = -1;
+        } else {
+            nextSiblings[previous] = -1;
+        }
+        parents[last] = -1;
+        return last;
+    }
+
+    // Put replacement, which has no parent, in the place of child
+    public void replaceChild(int parent, int child, int replacement) {
+        int previous = -1;
+        int current = firstChildren[parent];
+        while (current != child) {
+            if (current < 0) {
+                throw new IllegalStateException("Node " + unid(child) + " is not a child of " + unid(parent));
+            }
+            previous = current;
+            current = nextSiblings[current];
+        }
+        if (previous < 0) {
+            firstChildren[parent] = replacement;
+        } else {
+            nextSiblings[previous] = replacement;
+        }
+        nextSiblings[replacement] = nextSiblings[child];
+        parents[replacement] = parent;
+        nextSiblings[child] = -1;
+        parents[child] = -1;
+    }
+
+    public int unid(int node) {
+        if (unids != null) {
+            return unids[node];
+        }
+        return node == 0 ? firstUnid : node + unidOffset;
+    }
+
+    private int kindOrdinal(int node) {
+        return kinds[node] & KIND_MASK;
+    }
+
+    private boolean hasFlag(int node, byte flag) {
+        return (kinds[node] & flag << KIND_BITS) != 0;
+    }
+
+    public NodeKind kind(int node) {
+        return NodeKind.of(kindOrdinal(node));
+    }
+
+    public boolean is(int node, NodeKind kind) {
+        return kindOrdinal(node) == kind.ordinal();
+    }
+
+    // The keyword of a skip/halt/return COMMAND, or the text of a leaf that
+    // has no token; null for other nodes
+    public String lexeme(int node) {
+        return slots[node] < -1 && kindOrdinal(node) != SHARED ? lexemes.name(-2 - slots[node]) : null;
+    }
+
+    public void setLexeme(int node, String lexeme) {
+        if (slots[node] >= 0) {
+            throw new IllegalStateException("Node " + unid(node) + " has a token or target, so it cannot have a lexeme");
+        }
+        slots[node] = lexeme == null ? -1 : lexemeSlot(lexeme);
+    }
+
+    private int lexemeSlot(String lexeme) {
+        return -2 - lexemes.intern(lexeme, 0, lexeme.length());
+    }
+
+    // SYMB of an inner node, or the token type of a leaf, as written to files
+    public String symbol(int node) {
+        String lexeme = lexeme(node);
+        if (lexeme != null) {
+            return lexeme;
+        }
+        if (token(node) >= 0 && tokens != null) {
+            return tokens.type(slots[node]).toString();
+        }
+        return kind(node).name();
+    }
+
+    public int parent(int node) {
+        return parents[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    // Last child of node, or -1; walks the children
+    public int lastChild(int node) {
+        int last = firstChildren[node];
+        if (last >= 0) {
+            while (nextSiblings[last] >= 0) {
+                last = nextSiblings[last];
+            }
+        }
+        return last;
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    // First child of node with the given kind, or -1
+    public int child(int node, NodeKind kind) {
+        for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+            if (kindOrdinal(child) == kind.ordinal()) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isLeaf(int node) {
+        return hasFlag(node, LEAF);
+    }
+
+    public boolean isListed(int node) {
+        return hasFlag(node, LISTED);
+    }
+
+    public boolean isRetired(int node) {
+        return hasFlag(node, RETIRED);
+    }
+
+    // Token index of a leaf, -1 if it has none
+    public int token(int node) {
+        return hasFlag(node, LEAF) && slots[node] >= 0 ? slots[node] : -1;
+    }
+
+    // Text of a leaf: its token's text, or its lexeme if it has no token
+    public String text(int node) {
+        return token(node) >= 0 && tokens != null ? tokens.text(slots[node]) : symbol(node);
+    }
+
+    // Move the token indexes of the leaves among nodes [from, to] by delta
+    public void shiftTokens(int from, int to, int delta) {
+        for (int node = from; node <= to; node++) {
+            if (token(node) >= 0) {
+                slots[node] += delta;
+            }
+        }
+    }
+
+    // Next node after node in preorder, without leaving the subtree of top;
+    // -1 once the subtree is done. Walks the links, so it needs no stack.
+    public int next(int node, int top) {
+        if (firstChildren[node] >= 0) {
+            return firstChildren[node];
+        }
+        while (node != top) {
+            if (nextSiblings[node] >= 0) {
+                return nextSiblings[node];
+            }
+            node = parents[node];
+        }
+        return -1;
+    }
+
+    // Mark nodes [from, to] as retired. They must be unlinked from the rest.
+    public void retire(int from, int to) {
+        for (int node = from; node <= to; node++) {
+            if (!hasFlag(node, RETIRED)) {
+                kinds[node] |= RETIRED << KIND_BITS;
+                retired++;
+            }
+        }
+    }
+
+    public int retiredCount() {
+        return retired;
+    }
+
+    // Drop the retired nodes, keeping the others in order. Returns the new
+    // index of every old node, -1 for the dropped ones.
+    public int[] compact() {
+        if (unids == null) {
+            // Moved nodes keep their unids
+            keepUnids();
+        }
+        int[] moved = new int[size];
+        int kept = 0;
+        for (int node = 0; node < size; node++) {
+            moved[node] = hasFlag(node, RETIRED) ? -1 : kept++;
+        }
+        for (int node = 0; node < size; node++) {
+            int target = moved[node];
+            if (target < 0) {
+                continue;
+            }
+            unids[target] = unids[node];
+            kinds[target] = kinds[node];
+            parents[target] = moved(moved, parents[node]);
+            firstChildren[target] = moved(moved, firstChildren[node]);
+            nextSiblings[target] = moved(moved, nextSiblings[node]);
+            slots[target] = kindOrdinal(node) == SHARED ? moved(moved, slots[node]) : slots[node];
+            if (hashes != null) {
+                hashes[target] = hashes[node];
+            }
+            if (valueTypes != null) {
+                valueTypes[target] = valueTypes[node];
+            }
+        }
+        size = kept;
+        retired = 0;
+        return moved;
+    }
+
+    private static int moved(int[] moved, int node) {
+        return node < 0 ? -1 : moved[node];
+    }
+
+    public Cursor cursor(int node) {
+        return new Cursor(node);
+    }
+
+    // Position in the tree that moves along the links. One cursor can walk a
+    // whole tree, so a walk allocates nothing per node.
+    public final class Cursor {
+
+        private int node;
+
+        private Cursor(int node) {
+            this.node = node;
+        }
+
+        public int node() {
+            return node;
+        }
+
+        public Cursor moveTo(int target) {
+            node = target;
+            return this;
+        }
+
+        public int unid() {
+            return Ast.this.unid(node);
+        }
+
+        public NodeKind kind() {
+            return Ast.this.kind(node);
+        }
+
+        public boolean is(NodeKind kind) {
+            return Ast.this.is(node, kind);
+        }
+
+        public String symbol() {
+            return Ast.this.symbol(node);
+        }
+
+        public boolean isLeaf() {
+            return Ast.this.isLeaf(node);
+        }
+
+        public int token() {
+            return Ast.this.token(node);
+        }
+
+        public String text() {
+            return Ast.this.text(node);
+        }
+
+        // The move methods leave the cursor where it is and return false if
+        // there is nowhere to go
+        public boolean toParent() {
+            return move(parents[node]);
+        }
+
+        public boolean toFirstChild() {
+            return move(firstChildren[node]);
+        }
+
+        public boolean toNextSibling() {
+            return move(nextSiblings[node]);
+        }
+
+        public boolean toChild(NodeKind kind) {
+            return move(child(node, kind));
+        }
+
+        // Preorder step inside the subtree of top
+        public boolean toNext(int top) {
+            return move(next(node, top));
+        }
+
+        private boolean move(int target) {
+            if (target < 0) {
+                return false;
+            }
+            node = target;
+            return true;
+        }
+    }
+
+    // Release the capacity beyond the nodes added so far
+    public void trimToSize() {
+        if (size < kinds.length) {
+            resize(Math.max(size, 1));
+        }
+    }
+
+    private void grow() {
+        resize(kinds.length * 2);
+    }
+
+    private void resize(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+        if (unids != null) {
+            unids = Arrays.copyOf(unids, capacity);
+        }
+        if (hashes != null) {
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        if (valueTypes != null) {
+            valueTypes = Arrays.copyOf(valueTypes, capacity);
+        }
+    }
+}
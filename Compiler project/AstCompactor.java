@@ -0,0 +1,249 @@
+import java.util.Arrays;
+import java.util.Set;
+
+// Turns the parse tree into an abstract syntax tree in a new, right-sized
+// arena. The parse tree is left as it is.
+//
+// - Leaves that only mark syntax (punctuation, main/begin/end, if/then/else,
+//   '=') are dropped.
+// - The right-nested INSTRUC, GLOBVARS, LOCVARS, FUNCTIONS and parameter
+//   chains become one list. An ALGO holds its commands and a HEADER its
+//   parameter leaves directly; GLOBVARS and LOCVARS hold type/name leaf pairs.
+// - Unit productions are collapsed: TERM, VTYPE and FTYP are replaced by their
+//   only child, and a COMMAND by its ASSIGN, CALL or BRANCH. A COMMAND for skip,
+//   halt, return or print stays, with the keyword as its lexeme. The empty ARG
+//   nodes are dropped.
+// - A condition operator is the first child of the SIMPLE or COMPOSITE it
+//   applies to. The parser puts the outermost one under a detached COND.
+//
+// Nodes keep their unids and leaves their token indexes, so the result can be
+// written with SyntaxTree.toXML/toBinary like the parse tree. The copy is made
+// in one TreeWalker walk, so it does not recurse however deep the tree is.
+//
+// With sharing, expressions (UNOP, BINOP and the SIMPLE and COMPOSITE
+// conditions) are hash-consed: each distinct one is kept once, with its
+// structural hash, and every repeat becomes a SHARED node pointing at it. None
+// of them can contain a call, so none has side effects. Equal means the same
+// operators, names and constants in the same places; the variables of two
+// repeats may still be declared in different scopes.
+
+public final class AstCompactor {
+
+    private static final Set<String> SYNTAX = Set.of(
+            ";", ",", "(", ")", "{", "}", "=", "main", "begin", "end", "if", "then", "else");
+    private static final Set<String> BINARY_OPERATORS = Set.of(
+            "eq", "grt", "add", "sub", "mul", "div", "or", "and");
+
+    private final Ast from;
+    private final Ast to;
+    // The kept lists are long, so children are appended through this
+    private final Ast.Appender children;
+    private final boolean share;
+    // Kept expressions by structural hash; the others with the same hash are
+    // chained through sameHash
+    private final IntMap<Integer> expressions = new IntMap<>();
+    private int[] sameHash = new int[0];
+
+    private AstCompactor(Ast from, boolean share) {
+        this.from = from;
+        this.share = share;
+        // About half the parse tree's nodes survive
+        this.to = new Ast(from.tokens(), from.size() / 2);
+        this.children = to.appender();
+    }
+
+    public static SyntaxTree compact(SyntaxTree tree) {
+        return compact(tree, false);
+    }
+
+    // share: keep each distinct expression once (see above)
+    public static SyntaxTree compact(SyntaxTree tree, boolean share) {
+        AstCompactor compactor = new AstCompactor(tree.ast, share);
+        Copier copier = compactor.new Copier();
+        try {
+            TreeWalker.walk(tree.ast, tree.root, copier);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        compactor.to.trimToSize();
+        return new SyntaxTree(compactor.to, copier.root);
+    }
+
+    // Copies the parse tree in one walk. A node that is kept is added when it
+    // is entered and linked to its new parent when it is left, once its own
+    // children are in place (and, with sharing, once it has been interned). A
+    // node that is collapsed or spliced away passes its children on to the
+    // node that takes its place.
+    private final class Copier implements TreeWalker.Visitor {
+
+        // For each inner node entered: the node its children go under, which is
+        // its copy if it is kept and its parent's target if not
+        private final int[] targets = new int[from.size()];
+        // Operator leaf seen just before a SIMPLE, for that SIMPLE
+        private int operator = -1;
+        int root = -1;
+
+        @Override
+        public boolean enter(int node) {
+            int parent = from.parent(node);
+            int target = parent >= 0 ? targets[parent] : -1;
+            if (from.isLeaf(node)) {
+                if (BINARY_OPERATORS.contains(from.text(node)) && simpleFollows(node)) {
+                    operator = node;
+                } else if (!SYNTAX.contains(from.text(node))) {
+                    children.append(target, copyLeaf(node));
+                }
+                return false;
+            }
+            switch (from.kind(node)) {
+                case ARG -> {
+                    targets[node] = target;
+                    return false;
+                }
+                case TERM, VTYPE, FTYP, INSTRUC, VNAME -> {
+                    // Replaced by the only child, or spliced into the parent
+                    targets[node] = target;
+                    return true;
+                }
+                case COMMAND -> {
+                    String keyword = from.lexeme(node);
+                    int child = from.firstChild(node);
+                    if (keyword == null && child >= 0 && !from.isLeaf(child)) {
+                        targets[node] = target;
+                        return true;
+                    }
+                    keep(node, keyword != null ? keyword : "print");
+                }
+                case GLOBVARS, LOCVARS, FUNCTIONS -> {
+                    if (parent >= 0 && from.is(parent, from.kind(node))) {
+                        // The next link of the chain adds to the same list
+                        targets[node] = target;
+                        return true;
+                    }
+                    keep(node, null);
+                }
+                case SIMPLE, COMPOSITE -> {
+                    int condition = keep(node, null);
+                    int applied = from.is(node, NodeKind.SIMPLE) ? operator : -1;
+                    operator = -1;
+                    if (applied < 0 && parent >= 0 && from.is(parent, NodeKind.BRANCH)) {
+                        int cond = detachedCond(node);
+                        if (cond >= 0 && from.firstChild(cond) >= 0 && from.isLeaf(from.firstChild(cond))) {
+                            applied = from.firstChild(cond);
+                        }
+                    }
+                    if (applied >= 0) {
+                        children.append(condition, copyLeaf(applied));
+                    }
+                }
+                default ->
+                    keep(node, null);
+            }
+            return true;
+        }
+
+        @Override
+        public void leave(int node) {
+            if (from.isLeaf(node)) {
+                return;
+            }
+            int parent = from.parent(node);
+            int target = parent >= 0 ? targets[parent] : -1;
+            int copy = targets[node];
+            if (copy == target) {
+                return;
+            }
+            if (share && (to.is(copy, NodeKind.UNOP) || to.is(copy, NodeKind.BINOP)
+                    || to.is(copy, NodeKind.SIMPLE) || to.is(copy, NodeKind.COMPOSITE))) {
+                copy = intern(copy);
+            }
+            if (target >= 0) {
+                children.append(target, copy);
+            } else if (root < 0) {
+                root = copy;
+            }
+        }
+
+        private int keep(int node, String lexeme) {
+            int copy = to.add(from.unid(node), from.kind(node), lexeme, -1, Ast.LISTED);
+            targets[node] = copy;
+            return copy;
+        }
+    }
+
+    private int copyLeaf(int leaf) {
+        return to.add(from.unid(leaf), NodeKind.LEAF, from.lexeme(leaf), from.token(leaf), Ast.LEAF);
+    }
+
+    // Whether the first sibling after leaf that is not a syntax leaf is a SIMPLE
+    private boolean simpleFollows(int leaf) {
+        int next = from.nextSibling(leaf);
+        while (next >= 0 && from.isLeaf(next) && SYNTAX.contains(from.text(next))) {
+            next = from.nextSibling(next);
+        }
+        return next >= 0 && !from.isLeaf(next) && from.is(next, NodeKind.SIMPLE);
+    }
+
+    // The kept node for the expression just copied, whose nodes are the last
+    // ones in the arena. Its subexpressions have been interned already, so it
+    // equals a kept one if their children are the same leaves and nodes. A
+    // repeat is dropped again and a SHARED node takes its place.
+    private int intern(int copy) {
+        int hash = hash(copy);
+        Integer first = expressions.get(hash);
+        for (int kept = first == null ? -1 : first; kept >= 0; kept = sameHash[kept]) {
+            if (sameExpression(kept, copy)) {
+                int unid = to.unid(copy);
+                to.truncate(copy);
+                return to.addShared(unid, kept);
+            }
+        }
+        to.setHash(copy, hash);
+        if (copy >= sameHash.length) {
+            sameHash = Arrays.copyOf(sameHash, Math.max(16, to.size() * 2));
+        }
+        sameHash[copy] = first == null ? -1 : first;
+        expressions.put(hash, copy);
+        return copy;
+    }
+
+    private int hash(int node) {
+        int hash = to.kind(node).ordinal();
+        for (int child = to.firstChild(node); child >= 0; child = to.nextSibling(child)) {
+            hash = 31 * hash + (to.isLeaf(child) ? to.text(child).hashCode() : to.hash(child));
+        }
+        return hash;
+    }
+
+    private boolean sameExpression(int a, int b) {
+        if (!to.is(a, to.kind(b))) {
+            return false;
+        }
+        int x = to.firstChild(a);
+        int y = to.firstChild(b);
+        while (x >= 0 && y >= 0) {
+            if (to.isLeaf(x) != to.isLeaf(y)) {
+                return false;
+            }
+            if (to.isLeaf(x) ? !to.text(x).equals(to.text(y)) : to.canonical(x) != to.canonical(y)) {
+                return false;
+            }
+            x = to.nextSibling(x);
+            y = to.nextSibling(y);
+        }
+        return x < 0 && y < 0;
+    }
+
+    // The parser adds a condition's COND node, with no parent, just before the
+    // SIMPLE or COMPOSITE: right before it, or before the operator and '('
+    // leaves it holds. Trees read back from a file have no COND nodes.
+    // Only a condition directly under a BRANCH has one.
+    private int detachedCond(int node) {
+        for (int cond = node - 1; cond >= 0 && cond >= node - 3; cond--) {
+            if (from.is(cond, NodeKind.COND) && !from.isLeaf(cond) && from.parent(cond) < 0) {
+                return cond;
+            }
+        }
+        return -1;
+    }
+}
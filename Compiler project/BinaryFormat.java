@@ -0,0 +1,496 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Versioned binary files for the token stream and the syntax tree, the compact
+// counterparts of tokens_output.xml and syntax_tree.xml.
+//
+// Layout (big-endian):
+//   int magic, int version, int recordCount
+//   byte fieldCount, then per field a byte of width (1-4) and a byte that is 1
+//   if the field is based, padded to 4 bytes
+//   int stringCount, int[stringCount + 1] string offsets, UTF-8 string bytes
+//   per based field, an int base for every block of 256 records
+//   recordCount records of fixed-width unsigned fields
+//   per field, int exceptionCount and that many (int record, int value) pairs,
+//   in record order
+// A field stores value + 1, so -1 ("none") is stored as 0; a based field
+// stores value - base + 1, the base being the smallest value in the block.
+// Each field gets the width that makes the file smallest: a value too large
+// for it is stored as the largest value the width holds, and the real one is
+// kept in the field's exceptions, found by binary search. Records have a
+// fixed size, so a mapped file is read in place without parsing.
+//
+// Token records:  kind, text (both string indexes). Token ids are index + 1.
+// Tree records, in preorder, root first:
+//   unid (based), kind (string index), parent, first child, next sibling,
+//   token (based; index into the token file, leaves only)
+// The links are stored relative to the record, which keeps them small:
+//   parent: record - parent
+//   next sibling: next sibling - record
+//   first child: d = first child - record - 1, zigzag encoded (2d for d >= 0,
+//   -2d - 1 below). A first child always follows its parent, so d is 0,
+//   except for a SHARED record, whose first child is the earlier record it
+//   repeats.
+
+public final class BinaryFormat {
+
+    static final int TOKENS_MAGIC = 0x52535054; // "RSPT"
+    static final int TREE_MAGIC = 0x52535041;   // "RSPA"
+    static final int VERSION = 2;
+    // Records per base of a based field
+    private static final int BLOCK = 256;
+
+    private BinaryFormat() {
+    }
+
+    public static void writeTokens(TokenBuffer tokens, String outputPath) throws IOException {
+        Strings strings = new Strings();
+        int[] kinds = new int[tokens.size()];
+        int[] texts = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            kinds[i] = strings.index(tokens.type(i).name());
+            texts[i] = strings.index(tokens.text(i));
+        }
+        write(Paths.get(outputPath), TOKENS_MAGIC, tokens.size(), strings, new boolean[2], kinds, texts);
+    }
+
+    // Writes the tree under root. Leaves must come from the parser, so their
+    // text can be found through their token index.
+    public static void writeTree(Ast ast, int root, String outputPath) throws IOException {
+        // Record numbers in preorder; the links walk the tree without a stack
+        int[] records = new int[ast.size()];
+        int count = 0;
+        for (int node = root; node >= 0; node = ast.next(node, root)) {
+            records[node] = count++;
+        }
+
+        Strings strings = new Strings();
+        int[] unids = new int[count];
+        int[] kinds = new int[count];
+        int[] parents = new int[count];
+        int[] firstChildren = new int[count];
+        int[] nextSiblings = new int[count];
+        int[] tokenRefs = new int[count];
+        for (int node = root; node >= 0; node = ast.next(node, root)) {
+            int index = records[node];
+            unids[index] = ast.unid(node);
+            kinds[index] = strings.index(ast.symbol(node));
+            parents[index] = node == root ? -1 : index - records[ast.parent(node)];
+            int firstChild = ast.is(node, NodeKind.SHARED) ? ast.canonical(node) : ast.firstChild(node);
+            if (firstChild < 0) {
+                firstChildren[index] = -1;
+            } else {
+                int d = records[firstChild] - index - 1;
+                firstChildren[index] = d >= 0 ? 2 * d : -2 * d - 1;
+            }
+            nextSiblings[index] = node == root || ast.nextSibling(node) < 0 ? -1 : records[ast.nextSibling(node)] - index;
+            if (ast.isLeaf(node)) {
+                if (ast.token(node) < 0) {
+                    throw new IOException("Leaf " + ast.unid(node) + " (" + ast.text(node) + ") has no token index");
+                }
+                tokenRefs[index] = ast.token(node);
+            } else {
+                tokenRefs[index] = -1;
+            }
+        }
+        boolean[] based = {true, false, false, false, false, true};
+        write(Paths.get(outputPath), TREE_MAGIC, count, strings, based,
+                unids, kinds, parents, firstChildren, nextSiblings, tokenRefs);
+    }
+
+    public static Tokens readTokens(String inputPath) throws IOException {
+        return new Tokens(new Table(Paths.get(inputPath), TOKENS_MAGIC, 2));
+    }
+
+    public static Tree readTree(String inputPath) throws IOException {
+        return new Tree(new Table(Paths.get(inputPath), TREE_MAGIC, 6));
+    }
+
+    // Mapped token file
+    public static final class Tokens {
+
+        private final Table table;
+        private final TokenType[] types;
+
+        private Tokens(Table table) {
+            this.table = table;
+            this.types = new TokenType[table.stringCount];
+        }
+
+        public int size() {
+            return table.size;
+        }
+
+        public TokenType type(int index) {
+            int kind = table.get(index, 0);
+            if (types[kind] == null) {
+                types[kind] = TokenType.valueOf(table.string(kind));
+            }
+            return types[kind];
+        }
+
+        public String text(int index) {
+            return table.string(table.get(index, 1));
+        }
+
+        public TokenBuffer toTokenBuffer() {
+            List<Token> tokens = new ArrayList<>(size());
+            for (int i = 0; i < size(); i++) {
+                tokens.add(new Token(type(i), text(i), i + 1));
+            }
+            return TokenBuffer.of(tokens);
+        }
+    }
+
+    // Mapped tree file; records are in preorder and record 0 is the root
+    public static final class Tree {
+
+        private final Table table;
+
+        private Tree(Table table) {
+            this.table = table;
+        }
+
+        public int size() {
+            return table.size;
+        }
+
+        public int unid(int record) {
+            return table.get(record, 0);
+        }
+
+        public String symbol(int record) {
+            return table.string(table.get(record, 1));
+        }
+
+        public int parent(int record) {
+            int delta = table.get(record, 2);
+            return delta < 0 ? -1 : record - delta;
+        }
+
+        public int firstChild(int record) {
+            int zigzag = table.get(record, 3);
+            if (zigzag < 0) {
+                return -1;
+            }
+            return record + 1 + ((zigzag & 1) == 0 ? zigzag >>> 1 : -((zigzag + 1) >>> 1));
+        }
+
+        public int nextSibling(int record) {
+            int delta = table.get(record, 4);
+            return delta < 0 ? -1 : record + delta;
+        }
+
+        // Token index of a leaf, -1 for inner nodes
+        public int token(int record) {
+            return table.get(record, 5);
+        }
+
+        // Rebuild the tree in an arena, taking leaf text from the matching token
+        // file. Records are in preorder, so record i becomes node i.
+        public SyntaxTree toSyntaxTree(Tokens tokens) {
+            Ast ast = new Ast(tokens.toTokenBuffer(), size());
+            Ast.Appender children = ast.appender();
+            for (int i = 0; i < size(); i++) {
+                int token = token(i);
+                ast.addSymbol(unid(i), symbol(i), token, token >= 0 ? Ast.LEAF : 0);
+                if (parent(i) >= 0) {
+                    children.append(parent(i), i);
+                }
+                if (ast.is(i, NodeKind.SHARED)) {
+                    ast.share(i, firstChild(i));
+                }
+            }
+            return size() > 0 ? new SyntaxTree(ast, 0) : null;
+        }
+    }
+
+    private static void write(Path path, int magic, int count, Strings strings, boolean[] based, int[]... fields) throws IOException {
+        int blocks = (count + BLOCK - 1) / BLOCK;
+        int[][] bases = new int[fields.length][];
+        int[][] stored = new int[fields.length][count];
+        int[] widths = new int[fields.length];
+        for (int f = 0; f < fields.length; f++) {
+            if (based[f]) {
+                bases[f] = new int[blocks];
+                for (int block = 0; block < blocks; block++) {
+                    int base = Integer.MAX_VALUE;
+                    for (int i = block * BLOCK; i < Math.min(count, (block + 1) * BLOCK); i++) {
+                        if (fields[f][i] >= 0) {
+                            base = Math.min(base, fields[f][i]);
+                        }
+                    }
+                    bases[f][block] = base == Integer.MAX_VALUE ? 0 : base;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int value = fields[f][i];
+                stored[f][i] = value < 0 ? 0 : value - (based[f] ? bases[f][i / BLOCK] : 0) + 1;
+            }
+            widths[f] = bestWidth(stored[f], count);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            buffer.putInt(magic).putInt(VERSION).putInt(count);
+            buffer.put((byte) fields.length);
+            for (int f = 0; f < fields.length; f++) {
+                buffer.put((byte) widths[f]).put((byte) (based[f] ? 1 : 0));
+            }
+            while (buffer.position() % 4 != 0) {
+                buffer.put((byte) 0);
+            }
+
+            buffer.putInt(strings.list.size());
+            int offset = 0;
+            buffer.putInt(offset);
+            for (byte[] bytes : strings.list) {
+                buffer = room(channel, buffer, 4);
+                offset += bytes.length;
+                buffer.putInt(offset);
+            }
+            for (byte[] bytes : strings.list) {
+                int start = 0;
+                while (start < bytes.length) {
+                    buffer = room(channel, buffer, 1);
+                    int length = Math.min(buffer.remaining(), bytes.length - start);
+                    buffer.put(bytes, start, length);
+                    start += length;
+                }
+            }
+
+            for (int f = 0; f < fields.length; f++) {
+                if (based[f]) {
+                    for (int base : bases[f]) {
+                        buffer = room(channel, buffer, 4);
+                        buffer.putInt(base);
+                    }
+                }
+            }
+
+            int recordSize = 0;
+            for (int width : widths) {
+                recordSize += width;
+            }
+            byte[] record = new byte[recordSize];
+            for (int i = 0; i < count; i++) {
+                int position = 0;
+                for (int f = 0; f < fields.length; f++) {
+                    long value = Math.min(stored[f][i] & 0xffffffffL, escape(widths[f]));
+                    for (int shift = (widths[f] - 1) * 8; shift >= 0; shift -= 8) {
+                        record[position++] = (byte) (value >>> shift);
+                    }
+                }
+                buffer = room(channel, buffer, recordSize);
+                buffer.put(record);
+            }
+
+            for (int f = 0; f < fields.length; f++) {
+                long escape = escape(widths[f]);
+                buffer = room(channel, buffer, 4);
+                buffer.putInt(exceptions(stored[f], count, escape));
+                for (int i = 0; i < count; i++) {
+                    if ((stored[f][i] & 0xffffffffL) >= escape) {
+                        buffer = room(channel, buffer, 8);
+                        buffer.putInt(i).putInt(stored[f][i]);
+                    }
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // Width of a field that makes it smallest, counting 8 bytes per exception
+    private static int bestWidth(int[] stored, int count) {
+        int best = 4;
+        long bestSize = 4L * count;
+        for (int width = 3; width >= 1; width--) {
+            long size = (long) width * count + 8L * exceptions(stored, count, escape(width));
+            if (size < bestSize) {
+                best = width;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    // Stored values at or above escape, which go in the exceptions
+    private static int exceptions(int[] stored, int count, long escape) {
+        int exceptions = 0;
+        for (int i = 0; i < count; i++) {
+            if ((stored[i] & 0xffffffffL) >= escape) {
+                exceptions++;
+            }
+        }
+        return exceptions;
+    }
+
+    // Largest value a field of this width holds, which marks an exception;
+    // a 4-byte field holds every stored value, so it has none
+    private static long escape(int width) {
+        return width == 4 ? 1L << 32 : (1L << width * 8) - 1;
+    }
+
+    // Flush the buffer to the channel if fewer than needed bytes are left
+    private static ByteBuffer room(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() < needed) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    // Header, string table, bases, record area and exceptions of a mapped file
+    private static final class Table {
+
+        final MappedByteBuffer buffer;
+        final int size;
+        final int[] widths;
+        final int[] fieldOffsets;
+        final int[] escapes;
+        // Position of each based field's bases, -1 for the other fields
+        final int[] bases;
+        // Position of each field's exception count
+        final int[] exceptions;
+        final int recordSize;
+        final int stringCount;
+        final int stringOffsets;
+        final int stringBytes;
+        final int records;
+        final String[] strings;
+
+        Table(Path path, int magic, int fieldCount) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.capacity() < 13 || buffer.getInt(0) != magic) {
+                throw new IOException(path + " is not a RecSPL " + (magic == TREE_MAGIC ? "tree" : "token") + " file");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException(path + " has unsupported version " + buffer.getInt(4));
+            }
+            size = buffer.getInt(8);
+            if (buffer.get(12) != fieldCount) {
+                throw new IOException(path + " has " + buffer.get(12) + " fields per record, expected " + fieldCount);
+            }
+            widths = new int[fieldCount];
+            fieldOffsets = new int[fieldCount];
+            escapes = new int[fieldCount];
+            bases = new int[fieldCount];
+            exceptions = new int[fieldCount];
+            int recordBytes = 0;
+            for (int f = 0; f < fieldCount; f++) {
+                widths[f] = buffer.get(13 + 2 * f);
+                escapes[f] = (int) escape(widths[f]);
+                bases[f] = buffer.get(14 + 2 * f) != 0 ? 0 : -1;
+                fieldOffsets[f] = recordBytes;
+                recordBytes += widths[f];
+            }
+            recordSize = recordBytes;
+            int position = (13 + 2 * fieldCount + 3) & ~3;
+            stringCount = buffer.getInt(position);
+            stringOffsets = position + 4;
+            stringBytes = stringOffsets + (stringCount + 1) * 4;
+            position = stringBytes + buffer.getInt(stringOffsets + stringCount * 4);
+            int blocks = (size + BLOCK - 1) / BLOCK;
+            for (int f = 0; f < fieldCount; f++) {
+                if (bases[f] >= 0) {
+                    bases[f] = position;
+                    position += blocks * 4;
+                }
+            }
+            records = position;
+            strings = new String[stringCount];
+            long end = (long) records + (long) size * recordSize;
+            for (int f = 0; f < fieldCount; f++) {
+                if (end + 4 > buffer.capacity()) {
+                    throw new IOException(path + " is truncated");
+                }
+                exceptions[f] = (int) end;
+                end += 4 + 8L * buffer.getInt((int) end);
+            }
+            if (end > buffer.capacity()) {
+                throw new IOException(path + " is truncated");
+            }
+        }
+
+        int get(int record, int field) {
+            int position = records + record * recordSize + fieldOffsets[field];
+            int value = 0;
+            for (int i = 0; i < widths[field]; i++) {
+                value = (value << 8) | (buffer.get(position + i) & 0xff);
+            }
+            if (value == escapes[field] && widths[field] < 4) {
+                value = exception(record, field);
+            }
+            if (value == 0) {
+                return -1;
+            }
+            return value - 1 + (bases[field] < 0 ? 0 : buffer.getInt(bases[field] + record / BLOCK * 4));
+        }
+
+        // Stored value of a record kept in the field's exceptions
+        private int exception(int record, int field) {
+            int pairs = exceptions[field] + 4;
+            int low = 0;
+            int high = buffer.getInt(exceptions[field]) - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int at = buffer.getInt(pairs + middle * 8);
+                if (at < record) {
+                    low = middle + 1;
+                } else if (at > record) {
+                    high = middle - 1;
+                } else {
+                    return buffer.getInt(pairs + middle * 8 + 4);
+                }
+            }
+            throw new IllegalStateException("Record " + record + " has no exception for field " + field);
+        }
+
+        String string(int index) {
+            String string = strings[index];
+            if (string == null) {
+                int start = buffer.getInt(stringOffsets + index * 4);
+                int end = buffer.getInt(stringOffsets + index * 4 + 4);
+                byte[] bytes = new byte[end - start];
+                buffer.get(stringBytes + start, bytes);
+                string = new String(bytes, StandardCharsets.UTF_8);
+                strings[index] = string;
+            }
+            return string;
+        }
+    }
+
+    private static final class Strings {
+
+        final Map<String, Integer> indexes = new HashMap<>();
+        final List<byte[]> list = new ArrayList<>();
+
+        int index(String string) {
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = list.size();
+                indexes.put(string, index);
+                list.add(string.getBytes(StandardCharsets.UTF_8));
+            }
+            return index;
+        }
+    }
+}
@@ -1,68 +1,68 @@
 
-import java.util.List;
-import java.util.Map;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 
 public class CodeGenerator {
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
     private final SymbolTable symbolTable;
-    private Map<String, FunctionSignature> functionTable;
+    private FunctionTable functionTable;
+    // Frame addresses of the variables, by token
+    private final VariableSlots slots;
     private int currentTokenIndex;
     private int lableCounter = 0;
-    private int variableCounter = 0;
-    private int xCounter = 0;
 
-    public CodeGenerator(List<Token> tokens, SymbolTable symbolTable, Map<String, FunctionSignature> functionTable) {
+    public CodeGenerator(TokenBuffer tokens, SymbolTable symbolTable, FunctionTable functionTable, VariableSlots slots) {
         this.tokens = tokens;
         this.symbolTable = symbolTable;
         this.currentTokenIndex = 0; // Start at the beginning of the token list
         this.functionTable = functionTable;
+        this.slots = slots;
     }
 
     public String translate() {
         return translationPROG();
     }
 
-    private Token getCurrentToken() {
-        if (currentTokenIndex < tokens.size()) {
-            return tokens.get(currentTokenIndex);
-        } else {
-            return null; // End of input
-        }
-
+    // Type of the token at index, or null at the end of input
+    private TokenType type(int index) {
+        return tokens.type(index);
     }
 
     private String newLabel(){
         return "L" + lableCounter++;
     }
 
-    private String newVariable(){
-        return "V" + variableCounter++;
-    }
-
     private String translationPROG() {
         // Assume the first token is 'main'
         match(TokenType.MAIN); // Consume 'main'
         translationGLOBVARS();
         String algoCode = translationALGO();
         String functionsCode = translateFUNCTIONS();
-        return algoCode + " STOP " + functionsCode; // Append STOP after ALGO
+        // Frame 0 holds the globals
+        return " REM FRAME " + slots.globalCount() + " " + algoCode + " STOP " + functionsCode; // Append STOP after ALGO
     }
 
     private String translationGLOBVARS() {
-        // Initialize the token iterator to read through GLOBVARS
-        Token currentToken = getCurrentToken();
-
-        // Process the tokens that make up the global variable declarations
-        while (currentToken != null && isGlobalVarToken(currentToken)) {
-            // Skip the global variable declaration or register it for scope analysis
-            // This could involve adding it to a symbol table for later reference if needed.
-            processGlobalVariable(currentToken);
-
-            // Move to the next token
-            currentToken = getCurrentToken();
+        // Each "num VNAME ," opens a nested GLOBVARS; a declaration is
+        // registered once everything after it has been read, innermost first.
+        // The open declarations are kept on a stack instead of the call stack.
+        int[] pending = new int[16];
+        int depth = 0;
+        while (true) {
+            int currentToken = currentTokenIndex;
+            if (type(currentToken) != null && isGlobalVarToken(currentToken)) {
+                if (depth == pending.length) {
+                    pending = Arrays.copyOf(pending, depth * 2);
+                }
+                pending[depth++] = currentToken;
+            } else if (depth == 0) {
+                break;
+            } else {
+                // Skip the global variable declaration or register it for scope analysis
+                processGlobalVariable(pending[--depth]);
+            }
         }
 
         // After processing, return an empty string since GLOBVARS are ignored in the output
@@ -70,18 +70,18 @@ public class CodeGenerator {
     }
 
     // Helper method to check if a token is part of a global variable declaration
-    private boolean isGlobalVarToken(Token token) {
+    // Consumes "num VNAME ," and returns true if all three are there
+    private boolean isGlobalVarToken(int token) {
         // Implement the logic to identify global variable tokens, such as type, name, etc.
         // This could involve checking if the token is of a certain type (e.g., int, string)
-        if (token.isType(TokenType.NUM) == true) {
-            match(token.type);
-            Token currentToken = getCurrentToken();
-            if (currentToken.isType(TokenType.VNAME) == true) {
-                match(currentToken.type);
-                currentToken = getCurrentToken();
-                if (currentToken.isType(TokenType.COMMA) == true) {
-                    match(currentToken.type);
-                    translationGLOBVARS();
+        if (tokens.isType(token, TokenType.NUM) == true) {
+            match(type(token));
+            int currentToken = currentTokenIndex;
+            if (tokens.isType(currentToken, TokenType.VNAME) == true) {
+                match(type(currentToken));
+                currentToken = currentTokenIndex;
+                if (tokens.isType(currentToken, TokenType.COMMA) == true) {
+                    match(type(currentToken));
                     return true;
                 } else {
                     return false;
@@ -94,9 +94,9 @@ public class CodeGenerator {
     }
 
     // Helper method to process global variable declarations for scope analysis
-    private void processGlobalVariable(Token token) {
+    private void processGlobalVariable(int token) {
         // Register the global variable in the symbol table or perform any necessary analysis
-        symbolTable.add(token.getName(), token.getType().toString());
+        symbolTable.add(tokens.text(token), Type.of(type(token)));
     }
 
     private String translationALGO() {
@@ -108,25 +108,28 @@ public class CodeGenerator {
 
     private String translationINSTRUC() {
         // This method should handle INSTRUC, which can be empty
-        String code = "";
-        if (getCurrentToken() == null) {
-            return "REM END ";
-        } else {
-            code = translationCOMMAND();
-            Token currentToken = getCurrentToken();
-            if (currentToken != null && currentToken.type == TokenType.SEMICOLON) {
-                match(TokenType.SEMICOLON); // Consume ';'
-                code += "\n" + translationINSTRUC(); // Append the next instruction
+        StringBuilder code = new StringBuilder();
+        while (true) {
+            if (type(currentTokenIndex) == null) {
+                code.append("REM END ");
+                break;
+            }
+            code.append(translationCOMMAND());
+            int currentToken = currentTokenIndex;
+            if (!tokens.isType(currentToken, TokenType.SEMICOLON)) {
+                break;
             }
-            return code;
+            match(TokenType.SEMICOLON); // Consume ';'
+            code.append("\n"); // The next instruction follows
         }
+        return code.toString();
     }
 
     private String translationFUNCTIONS() {
         // Assuming this processes the function declarations
         StringBuilder functionsCode = new StringBuilder();
         while (currentTokenIndex < tokens.size()) {
-            Token token = tokens.get(currentTokenIndex);
+            int token = currentTokenIndex;
             // Process function tokens here (to be implemented)
             // functionsCode.append(translationFUNCTION(token));
             // For demonstration, we'll just break the loop
@@ -136,8 +139,8 @@ public class CodeGenerator {
     }
 
     private String translationCOMMAND() {
-        Token currentToken = tokens.get(currentTokenIndex);
-        switch (currentToken.type) {
+        int currentToken = currentTokenIndex;
+        switch (type(currentToken)) {
             case SKIP:
                 currentTokenIndex++;
                 return " REM DO NOTHING ";
@@ -159,41 +162,39 @@ public class CodeGenerator {
             case END:
                 return "";
             default:
-                throw new RuntimeException("Unexpected token: " + currentToken);
+                throw new RuntimeException("Unexpected token: " + tokens.describe(currentToken));
         }
     }
 
     private String translationASSIGN() {
         // VNAME = TERM
-        String place = newVariable();
-        String x = "X" + xCounter++;
         String vnameCode = translateATOMIC();
-        if(TokenType.INPUT == getCurrentToken().type){
+        if(TokenType.INPUT == type(currentTokenIndex)){
             match(TokenType.INPUT);
             return "INPUT "+vnameCode;
         }
         match(TokenType.EQUALS); // Consume '='
         String termCode = translationTERM();
-        return place +" = "+termCode+"\n"+x+" = "+place; // Translate assignment
+        return vnameCode + " = " + termCode; // Translate assignment
     }
 
     private String translationTERM() {
         // Handle TERM definitions, such as ATOMIC, CALL, OP
-        Token currentToken = tokens.get(currentTokenIndex);
-        if (currentToken.type == TokenType.VNAME || currentToken.type == TokenType.CONST || currentToken.type == TokenType.CONST2) {
+        int currentToken = currentTokenIndex;
+        if (type(currentToken) == TokenType.VNAME || type(currentToken) == TokenType.CONST || type(currentToken) == TokenType.CONST2) {
             return translateATOMIC(); // Handle variable name
-        } else if (currentToken.type == TokenType.FNAME) {
+        } else if (type(currentToken) == TokenType.FNAME) {
             return translationCALL(); // Handle function call
-        } else if (isOperator(currentToken.type)) {
+        } else if (isOperator(type(currentToken))) {
             return translateOP(); // Handle operator translation
         }
-        throw new RuntimeException("Unexpected term: " + currentToken);
+        throw new RuntimeException("Unexpected term: " + tokens.describe(currentToken));
     }
 
     private String translationCALL() {
         // Handle function calls
-        Token funcToken = getCurrentToken();
-        FunctionSignature signature = functionTable.get(funcToken.data);// Retrieve new name
+        int funcToken = currentTokenIndex;
+        FunctionSignature signature = functionTable.get(tokens.symbol(funcToken));// Retrieve new name
         match(TokenType.FNAME); // Consume function name
         match(TokenType.LPAREN); // Consume '('
         String p1 = translateATOMIC();
@@ -207,36 +208,35 @@ public class CodeGenerator {
 
     private String translateATOMIC() {
         // Handle atomic elements, such as VNAME and CONST
-        Token currentToken = tokens.get(currentTokenIndex++);
-        if (currentToken.type == TokenType.VNAME) {
-            String place = newVariable();
-            String x = "X" + xCounter++;
-            // Retrieve renamed variable from symbol table
-            return x;
-        } else if (currentToken.type == TokenType.CONST2 || currentToken.type == TokenType.CONST) {
-            return currentToken.data; // Return constant as is
+        int currentToken = currentTokenIndex++;
+        if (type(currentToken) == TokenType.VNAME) {
+            // The variable's frame address, named by its declaration
+            SymbolInfo variable = slots.variable(currentToken);
+            return variable != null ? variable.internalName : tokens.text(currentToken);
+        } else if (type(currentToken) == TokenType.CONST2 || type(currentToken) == TokenType.CONST) {
+            return tokens.text(currentToken); // Return constant as is
         }
-        throw new RuntimeException("Unexpected atomic: " + currentToken);
+        throw new RuntimeException("Unexpected atomic: " + tokens.describe(currentToken));
     }
 
     private String translateOP() {
         // Translate operator based on the type
-        Token currentToken = getCurrentToken();
-        switch (currentToken.type) {
+        int currentToken = currentTokenIndex;
+        switch (type(currentToken)) {
             case BINOP:
                 return translateBinop();
             case UNOP:
                 return translateUnop();
             default:
-                throw new RuntimeException("Unexpected operator: " + currentToken);
+                throw new RuntimeException("Unexpected operator: " + tokens.describe(currentToken));
         }
     }
 
     private String translateBinop() {
-        Token currentToken = getCurrentToken();
+        int currentToken = currentTokenIndex;
         String atomic1Code = "";
         String atomic2Code = "";
-        String op = currentToken.data;
+        String op = tokens.text(currentToken);
         switch (op) {
             case "eq":
             case "grt":
@@ -250,20 +250,20 @@ public class CodeGenerator {
                 match(TokenType.LPAREN); // Consume '('
 
                 // Recursively translate the first argument
-                currentToken = getCurrentToken();
-                if (currentToken.type == TokenType.VNAME || currentToken.type == TokenType.CONST || currentToken.type == TokenType.CONST2) {
+                currentToken = currentTokenIndex;
+                if (type(currentToken) == TokenType.VNAME || type(currentToken) == TokenType.CONST || type(currentToken) == TokenType.CONST2) {
                     atomic1Code = translateATOMIC();
-                } else if (currentToken.type == TokenType.BINOP || currentToken.type == TokenType.UNOP) {
+                } else if (type(currentToken) == TokenType.BINOP || type(currentToken) == TokenType.UNOP) {
                     atomic1Code = translateOP(); // Recursive call
                 }
 
                 match(TokenType.COMMA); // Consume ','
 
                 // Recursively translate the second argument
-                currentToken = getCurrentToken();
-                if (currentToken.type == TokenType.VNAME || currentToken.type == TokenType.CONST || currentToken.type == TokenType.CONST2) {
+                currentToken = currentTokenIndex;
+                if (type(currentToken) == TokenType.VNAME || type(currentToken) == TokenType.CONST || type(currentToken) == TokenType.CONST2) {
                     atomic2Code = translateATOMIC();
-                } else if (currentToken.type == TokenType.BINOP || currentToken.type == TokenType.UNOP) {
+                } else if (type(currentToken) == TokenType.BINOP || type(currentToken) == TokenType.UNOP) {
                     atomic2Code = translateOP(); // Recursive call
                 }
 
@@ -305,19 +305,18 @@ public class CodeGenerator {
     }
 
     private String translateUnop() {
-        Token currentToken = getCurrentToken();
-        String op = currentToken.data;
+        int currentToken = currentTokenIndex;
+        String op = tokens.text(currentToken);
         match(TokenType.UNOP); // Consume unary operator
         match(TokenType.LPAREN); // Consume '('
 
         String argumentCode = "";
-        String place1 = newVariable();
 
         // Check if the argument is an ATOMIC or an OP
-        currentToken = getCurrentToken();
-        if (currentToken.type == TokenType.VNAME || currentToken.type == TokenType.CONST || currentToken.type == TokenType.CONST2) {
+        currentToken = currentTokenIndex;
+        if (type(currentToken) == TokenType.VNAME || type(currentToken) == TokenType.CONST || type(currentToken) == TokenType.CONST2) {
             argumentCode = translateATOMIC();
-        } else if (currentToken.type == TokenType.BINOP || currentToken.type == TokenType.UNOP) {
+        } else if (type(currentToken) == TokenType.BINOP || type(currentToken) == TokenType.UNOP) {
             argumentCode = translateOP(); // Recursive call
         }
 
@@ -330,7 +329,7 @@ public class CodeGenerator {
             case "sqrt":
                 return "SQR(" + argumentCode + ")";
             default:
-                throw new RuntimeException("Unknown unary operator: " + currentToken.data);
+                throw new RuntimeException("Unknown unary operator: " + tokens.text(currentToken));
         }
     }
 
@@ -351,8 +350,8 @@ public class CodeGenerator {
     private String translationCOND() {
         // Handle conditions (SIMPLE or COMPOSIT)
         // Placeholder: Assuming conditions are always SIMPLE for now
-        Token currentToken = getCurrentToken();
-        if (currentToken.type == TokenType.BINOP) {
+        int currentToken = currentTokenIndex;
+        if (type(currentToken) == TokenType.BINOP) {
            return translateBinop();
            // match(TokenType.LPAREN);
             // Token atomic1 = getCurrentToken();
@@ -362,14 +361,14 @@ public class CodeGenerator {
             //     return translationCOMPOSIT(currentToken.data);
             // }
 
-        } else if (currentToken.type == TokenType.UNOP) {
+        } else if (type(currentToken) == TokenType.UNOP) {
             return translateUnop();
             // match(TokenType.UNOP);
             // match(TokenType.LPAREN);
             // Token atomic1 = getCurrentToken();
             // return translationSIMPLE(currentToken.data);
         } else {
-            throw new RuntimeException("Unexpected condition: " + currentToken);
+            throw new RuntimeException("Unexpected condition: " + tokens.describe(currentToken));
         }
 
     }
@@ -377,15 +376,15 @@ public class CodeGenerator {
     private String translationCOMPOSIT(String op) {
         // Handle composite conditions
         // For example: translate(BINOP(COND1, COND2))
-        Token currentToken = getCurrentToken();
-        if (currentToken.type == TokenType.BINOP) {
+        int currentToken = currentTokenIndex;
+        if (type(currentToken) == TokenType.BINOP) {
             String cond1Code = translationSIMPLE(op);
             match(TokenType.BINOP); // Consume binary operator
             String cond2Code = translationSIMPLE(op);
             match(TokenType.RPAREN); // Consume ')'
             return cond1Code + " " + op + " " + cond2Code;
         } else {
-            throw new RuntimeException("Unexpected composite condition: " + currentToken);
+            throw new RuntimeException("Unexpected composite condition: " + tokens.describe(currentToken));
         }
     }
 
@@ -399,17 +398,21 @@ public class CodeGenerator {
         return atomic1Code + " " + op + " " + atomic2Code;
     }
 
+    // FUNCTIONS ::= DECL FUNCTIONS, one DECL per pass of the loop
     public String translateFUNCTIONS() {
-        Token expected = getCurrentToken();
-        if (expected == null) {
-            return " REM END ";
-        } else {
-            if (expected.type == TokenType.VOID || expected.type == TokenType.NUM) {
-                return translateFUNCTIONS1();
-            } else {
-                return "";
+        StringBuilder code = new StringBuilder();
+        while (true) {
+            int expected = currentTokenIndex;
+            if (type(expected) == null) {
+                code.append(" REM END ");
+                break;
             }
+            if (type(expected) != TokenType.VOID && type(expected) != TokenType.NUM) {
+                break;
+            }
+            code.append(translateDECL()).append(" STOP ");
         }
+        return code.toString();
     }
 
     public String translateFUNCTIONS1() {
@@ -419,21 +422,25 @@ public class CodeGenerator {
     }
 
     public String translateDECL() {
-        Token expected = getCurrentToken();
-        if (expected.type == TokenType.VOID || expected.type == TokenType.NUM) {
-            translateHEADER();
+        int expected = currentTokenIndex;
+        int function;
+        if (type(expected) == TokenType.VOID || type(expected) == TokenType.NUM) {
+            function = translateHEADER();
 
         } else {
             return "";
         }
-        return translateBODY();
+        // The function's frame: its parameters, then its locals
+        return " REM FRAME " + slots.frameSize(function) + " " + translateBODY();
     }
 
-    public void translateHEADER() {
+    // Returns the name id of the function
+    public int translateHEADER() {
         // HEADER is ignored in the code generation step.
-        Token expected = getCurrentToken();
-        match(expected.type);
-        expected = getCurrentToken();
+        int expected = currentTokenIndex;
+        match(type(expected));
+        expected = currentTokenIndex;
+        int function = tokens.symbol(expected);
         match(TokenType.FNAME);
         match(TokenType.LPAREN);
         match(TokenType.VNAME);
@@ -442,6 +449,7 @@ public class CodeGenerator {
         match(TokenType.COMMA);
         match(TokenType.VNAME);
         match(TokenType.RPAREN);
+        return function;
     }
 
     public void translateFTYP() {
@@ -450,21 +458,19 @@ public class CodeGenerator {
 
     public void translateLOCVARS() {
         // LOCVARS are ignored in the code generation step.
-        Token expected = getCurrentToken();
-        System.out.println(expected.type.toString());
-        if(expected.type == TokenType.NUM || expected.type == TokenType.TEXT){ 
-            match(expected.type);
-            expected = getCurrentToken();
+        while (true) {
+            int expected = currentTokenIndex;
+            if (type(expected) != TokenType.NUM && type(expected) != TokenType.TEXT) {
+                return;
+            }
+            match(type(expected));
             match(TokenType.VNAME);
-            expected = getCurrentToken();
-            if(expected.type == TokenType.COMMA){
-                match(TokenType.COMMA);
-                translateLOCVARS();
+            expected = currentTokenIndex;
+            if (type(expected) != TokenType.COMMA) {
+                return;
             }
-        }else if(expected == null){
-            return;
+            match(TokenType.COMMA);
         }
-        
     }
 
     public String translateBODY() {
@@ -478,9 +484,9 @@ public class CodeGenerator {
     }
 
     public String translatePROLOG() {
-        Token expected = getCurrentToken();
-        if (expected.type == TokenType.PROLOG) {
-            match(expected.type);
+        int expected = currentTokenIndex;
+        if (type(expected) == TokenType.PROLOG) {
+            match(type(expected));
             return " REM BEGIN ";
         }
         return "";
@@ -488,9 +494,9 @@ public class CodeGenerator {
     }
 
     public String translateEPILOG() {
-        Token expected = getCurrentToken();
-        if (expected.type == TokenType.EPILOG) {
-            match(expected.type);
+        int expected = currentTokenIndex;
+        if (type(expected) == TokenType.EPILOG) {
+            match(type(expected));
             return " REM END ";
         }
         return "";
@@ -505,10 +511,10 @@ public class CodeGenerator {
     }
 
     private void match(TokenType expected) {
-        if (currentTokenIndex < tokens.size() && tokens.get(currentTokenIndex).type == expected) {
+        if (tokens.isType(currentTokenIndex, expected)) {
             currentTokenIndex++; // Move to the next token
         } else {
-            throw new RuntimeException("Expected token: " + expected + ", found: " + tokens.get(currentTokenIndex));
+            throw new RuntimeException("Expected token: " + expected + ", found: " + tokens.describe(currentTokenIndex));
         }
     }
 
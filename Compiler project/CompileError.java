@@ -0,0 +1,24 @@
+// A syntax, scope or type error at a token (-1 if it is not about one). The
+// message is the one printed when compilation stops at the first error.
+
+public class CompileError extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    final Diagnostics.Kind kind;
+    final int token;
+
+    public CompileError(Diagnostics.Kind kind, int token, String message) {
+        super(message);
+        this.kind = kind;
+        this.token = token;
+    }
+
+    public Diagnostics.Kind getKind() {
+        return kind;
+    }
+
+    public int getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Errors of one compile, in the order they were found, so a single run can
+// report all of them (see the --all-errors option). Positions are worked out
+// from the token's source offset only when the errors are written.
+
+public final class Diagnostics {
+
+    public enum Kind {
+        SYNTAX, SCOPE, TYPE
+    }
+
+    public static final class Diagnostic {
+
+        final Kind kind;
+        final int token;
+        final String message;
+
+        Diagnostic(Kind kind, int token, String message) {
+            this.kind = kind;
+            this.token = token;
+            this.message = message;
+        }
+    }
+
+    private final TokenBuffer tokens;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    // Offsets of the line starts of the source, built on first use
+    private int[] lineStarts;
+
+    public Diagnostics(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    public void report(Kind kind, int token, String message) {
+        diagnostics.add(new Diagnostic(kind, token, message));
+    }
+
+    public void report(CompileError error) {
+        report(error.kind, error.token, error.getMessage());
+    }
+
+    public boolean isEmpty() {
+        return diagnostics.isEmpty();
+    }
+
+    public int size() {
+        return diagnostics.size();
+    }
+
+    public boolean has(Kind kind) {
+        for (Diagnostic diagnostic : diagnostics) {
+            if (diagnostic.kind == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<Diagnostic> all() {
+        return diagnostics;
+    }
+
+    // "line:column" of a token, counted from 1, or "token <id>" when the
+    // tokens were not lexed from a source; "end of input" past the last token
+    public String position(int token) {
+        if (token >= tokens.size()) {
+            return "end of input";
+        }
+        int offset = tokens.offset(token);
+        if (offset < 0 || tokens.source() == null) {
+            return "token " + tokens.id(token);
+        }
+        if (lineStarts == null) {
+            lineStarts = lineStarts(tokens.source());
+        }
+        int line = Arrays.binarySearch(lineStarts, offset);
+        if (line < 0) {
+            line = -line - 2;
+        }
+        return (line + 1) + ":" + (offset - lineStarts[line] + 1);
+    }
+
+    public String format(Diagnostic diagnostic) {
+        String error = diagnostic.kind.name().toLowerCase() + " error: " + diagnostic.message;
+        return diagnostic.token < 0 ? error : position(diagnostic.token) + ": " + error;
+    }
+
+    // One line per error
+    public void writeTo(String outputFilePath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFilePath), StandardCharsets.UTF_8)) {
+            for (Diagnostic diagnostic : diagnostics) {
+                writer.write(format(diagnostic));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static int[] lineStarts(CharSequence source) {
+        int[] starts = new int[16];
+        int count = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+}
@@ -1,31 +1,34 @@
-
-import java.util.List;
+import java.util.Arrays;
 
 public class FunctionSignature {
 
+    private int nameId = -1;          // NamePool id of the function name
     private String functionName;      // The name of the function
-    private List<String> paramTypes;  // The list of parameter types
-    private String returnType;        // The return type of the function
+    private Type[] paramTypes;        // The parameter types, not to be modified
+    private Type returnType;          // The return type of the function
 
-    public FunctionSignature(String functionName, List<String> paramTypes, String returnType) {
+    public FunctionSignature(String functionName, Type returnType, Type[] parameterTypes) {
         this.functionName = functionName;
-        this.paramTypes = paramTypes;
+        this.paramTypes = parameterTypes;
         this.returnType = returnType;
     }
 
-    FunctionSignature(String functionName, String returnType, List<String> parameterTypes) {
-        this.functionName = functionName;
-        this.paramTypes = parameterTypes;
-        this.returnType = returnType;
+    FunctionSignature(int nameId, String functionName, Type returnType, Type[] parameterTypes) {
+        this(functionName, returnType, parameterTypes);
+        this.nameId = nameId;
+    }
+
+    public int getNameId() {
+        return nameId;
     }
 
     // Getter for parameter types
-    public List<String> getParamTypes() {
+    public Type[] getParamTypes() {
         return paramTypes;
     }
 
     // Getter for return type
-    public String getReturnType() {
+    public Type getReturnType() {
         return returnType;
     }
 
@@ -33,43 +36,37 @@ public class FunctionSignature {
         return functionName;
     }
 
-    public void setParamTypes(List<String> paramTypes) {
+    public void setParamTypes(Type[] paramTypes) {
         this.paramTypes = paramTypes;
     }
 
-    // Helper function to check if the provided arguments match the signature
-    public boolean matchesArgumentTypes(List<String> providedTypes) {
-        if (providedTypes.size() != paramTypes.size()) {
-            // Different number of arguments
-            for (int i = 0; i < providedTypes.size(); i++) {
-                if (!providedTypes.get(i).equals("num")) {
-                    return false; // Type mismatch
-                }
-            }
-        }
-
-        // Check if each provided argument type matches the corresponding parameter type
-        for (int i = 0; i < providedTypes.size(); i++) {
-            if (!providedTypes.get(i).equals(paramTypes.get(i))) {
-                return false; // Type mismatch
-            }
-        }
-
-        return true; // All types match
+    // Whether both declare the same function with the same parameters; the
+    // return types may differ
+    public boolean sameParameters(FunctionSignature other) {
+        return nameId == other.nameId
+                && (paramTypes == other.paramTypes || Arrays.equals(paramTypes, other.paramTypes));
     }
 
-    public boolean parameterSizeMatch(List<String> providedTypes) {
-        return providedTypes.size() == paramTypes.size();
+    // Helper function to check if the provided arguments match the signature
+    public boolean matchesArgumentTypes(Type[] providedTypes) {
+        return parameterSizeMatch(providedTypes) && parameterTypeCheck(providedTypes);
     }
 
-    public boolean parameterTypeCheck(List<String> providedTypes) {
+    public boolean parameterSizeMatch(Type[] providedTypes) {
+        return providedTypes.length == paramTypes.length;
+    }
 
-        for (int i = 0; i < providedTypes.size(); i++) {
-            if (!providedTypes.get(i).equals(paramTypes.get(i))) {
-                return false;
+    // Whether the arguments, as many as the parameters, have their types. An
+    // unknown (null) argument type follows an error that was already reported,
+    // so it lets the whole call pass.
+    public boolean parameterTypeCheck(Type[] providedTypes) {
+        boolean match = true;
+        for (int i = 0; i < providedTypes.length; i++) {
+            if (providedTypes[i] == null) {
+                return true;
             }
+            match &= providedTypes[i] == paramTypes[i];
         }
-
-        return true;
+        return match;
     }
 }
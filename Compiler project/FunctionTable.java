@@ -0,0 +1,63 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Function table indexed by the NamePool id of the function's FNAME, so a
+// call site looks its signature up with one array access.
+
+public final class FunctionTable {
+
+    private final NamePool names;
+    private FunctionSignature[] signatures = new FunctionSignature[16];
+    private int size;
+
+    public FunctionTable(NamePool names) {
+        this.names = names;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public FunctionSignature get(int nameId) {
+        return nameId >= 0 && nameId < signatures.length ? signatures[nameId] : null;
+    }
+
+    public FunctionSignature get(String functionName) {
+        return get(names.find(functionName));
+    }
+
+    public boolean containsKey(int nameId) {
+        return get(nameId) != null;
+    }
+
+    public void put(FunctionSignature signature) {
+        int nameId = signature.getNameId();
+        if (nameId >= signatures.length) {
+            signatures = Arrays.copyOf(signatures, Math.max(nameId + 1, signatures.length * 2));
+        }
+        if (signatures[nameId] == null) {
+            size++;
+        }
+        signatures[nameId] = signature;
+    }
+
+    // Signatures in name id order
+    public void forEach(Consumer<FunctionSignature> action) {
+        for (FunctionSignature signature : signatures) {
+            if (signature != null) {
+                action.accept(signature);
+            }
+        }
+    }
+
+    public void remove(int nameId) {
+        if (containsKey(nameId)) {
+            signatures[nameId] = null;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// LL(1) grammar and parse table for the table-driven parser, read from a
+// grammar file (see recspl.grammar for the format). The table is built from
+// the FIRST and FOLLOW sets when the file is read; "java Grammar [file]" prints
+// them with the table, and fails on a grammar that is not LL(1).
+//
+// Right-hand sides are int codes: the kind of symbol in the top bits, its id in
+// the low bits. A terminal's id is its TokenType ordinal, and the end of input
+// is one more than the last of those.
+
+public final class Grammar {
+
+    static final int TERMINAL = 0;
+    static final int NONTERMINAL = 1 << 28;
+    static final int ACTION = 2 << 28;
+    static final int KIND_MASK = 3 << 28;
+    // Flags of a symbol on a right-hand side
+    static final int NO_LEAF = 1 << 24;
+    static final int OUTER = 1 << 25;
+    static final int ID_MASK = 0xFFFF;
+
+    static final int END_OF_INPUT = TokenType.values().length;
+    private static final TokenType[] TERMINALS = TokenType.values();
+
+    private static final Pattern RULE = Pattern.compile("(\\w+)\\s*(?:\\[([^\\]]*)\\])?\\s*::=(.*)");
+    private static final Pattern MESSAGE = Pattern.compile("(\\w+)\\s*(!\\$?)\\s*\"(.*)\"");
+
+    private static Grammar recSPL;
+
+    // Nonterminals, by id; the first is the start symbol
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<NodeKind> kinds = new ArrayList<>();
+    private final List<Boolean> listed = new ArrayList<>();
+    private final List<Boolean> detached = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+    private final List<String> endMessages = new ArrayList<>();
+    private final List<String> actions = new ArrayList<>();
+
+    // Productions, by id
+    private final List<Integer> lefts = new ArrayList<>();
+    private final List<int[]> rights = new ArrayList<>();
+    // Explicit lookahead of a production ("on ..."), or null
+    private final List<BitSet> lookaheads = new ArrayList<>();
+
+    private boolean[] nullable;
+    private BitSet[] first;
+    private BitSet[] follow;
+    // Production to expand a nonterminal by on each terminal, or -1
+    private int[][] table;
+    // The same, flattened, and the rules as arrays for the parse loop
+    private int[] predictions;
+    private NodeKind[] nodeKinds;
+    private boolean[] listedNodes;
+    private boolean[] detachedNodes;
+    private int[][] rightSides;
+    private boolean[] withActions;
+    private final List<String> conflicts = new ArrayList<>();
+
+    private Grammar() {
+    }
+
+    // The RecSPL grammar, read from recspl.grammar on the class path or, failing
+    // that, from the directory holding the class files (or the jar)
+    public static synchronized Grammar recSPL() throws IOException {
+        if (recSPL == null) {
+            try (InputStream in = openRecSPL()) {
+                recSPL = read(in);
+            }
+        }
+        return recSPL;
+    }
+
+    private static InputStream openRecSPL() throws IOException {
+        InputStream in = Grammar.class.getResourceAsStream("/recspl.grammar");
+        if (in != null) {
+            return in;
+        }
+        try {
+            Path classes = Paths.get(Grammar.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            Path file = (Files.isDirectory(classes) ? classes : classes.getParent()).resolve("recspl.grammar");
+            if (Files.isRegularFile(file)) {
+                return Files.newInputStream(file);
+            }
+        } catch (URISyntaxException | SecurityException | NullPointerException e) {
+            // No location to look next to
+        }
+        throw new IOException("recspl.grammar not found on the class path or next to the class files");
+    }
+
+    public static Grammar read(InputStream in) throws IOException {
+        Grammar grammar = new Grammar();
+        List<String> rules = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("|")) {
+                if (rules.isEmpty()) {
+                    throw new IllegalStateException("Grammar: '|' before the first rule");
+                }
+                rules.set(rules.size() - 1, rules.get(rules.size() - 1) + " " + line);
+            } else {
+                rules.add(line);
+            }
+        }
+        // Declare every nonterminal before reading any right-hand side
+        for (String rule : rules) {
+            Matcher matcher = RULE.matcher(rule);
+            if (matcher.matches()) {
+                grammar.declare(matcher.group(1), matcher.group(2));
+            }
+        }
+        for (String rule : rules) {
+            Matcher matcher = RULE.matcher(rule);
+            Matcher message = MESSAGE.matcher(rule);
+            if (matcher.matches()) {
+                int left = grammar.ids.get(matcher.group(1));
+                for (String alternative : matcher.group(3).split("\\|")) {
+                    grammar.addProduction(left, alternative.trim());
+                }
+            } else if (message.matches()) {
+                Integer id = grammar.ids.get(message.group(1));
+                if (id == null) {
+                    throw new IllegalStateException("Grammar: message for unknown rule " + message.group(1));
+                }
+                (message.group(2).equals("!") ? grammar.messages : grammar.endMessages).set(id, message.group(3));
+            } else {
+                throw new IllegalStateException("Grammar: cannot read \"" + rule + "\"");
+            }
+        }
+        if (grammar.names.isEmpty()) {
+            throw new IllegalStateException("Grammar: no rules");
+        }
+        grammar.build();
+        return grammar;
+    }
+
+    private void declare(String name, String node) {
+        if (ids.containsKey(name)) {
+            throw new IllegalStateException("Grammar: rule " + name + " defined twice");
+        }
+        if (isTerminal(name)) {
+            throw new IllegalStateException("Grammar: rule " + name + " has the name of a token type");
+        }
+        ids.put(name, names.size());
+        names.add(name);
+        NodeKind kind = null;
+        boolean isListed = false;
+        boolean isDetached = false;
+        if (node != null) {
+            String[] words = node.trim().split("\\s+");
+            kind = NodeKind.valueOf(words[0]);
+            for (int i = 1; i < words.length; i++) {
+                switch (words[i]) {
+                    case "listed" ->
+                        isListed = true;
+                    case "detached" ->
+                        isDetached = true;
+                    default ->
+                        throw new IllegalStateException("Grammar: unknown flag " + words[i] + " of " + name);
+                }
+            }
+        }
+        kinds.add(kind);
+        listed.add(isListed);
+        detached.add(isDetached);
+        messages.add(null);
+        endMessages.add(null);
+    }
+
+    private void addProduction(int left, String alternative) {
+        String[] words = alternative.isEmpty() ? new String[0] : alternative.split("\\s+");
+        List<Integer> right = new ArrayList<>();
+        BitSet lookahead = null;
+        boolean empty = false;
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            if (word.equals("on")) {
+                lookahead = new BitSet();
+                for (i++; i < words.length; i++) {
+                    lookahead.set(words[i].equals("$") ? END_OF_INPUT : terminal(words[i]));
+                }
+            } else if (word.equals("%empty")) {
+                empty = true;
+            } else if (word.startsWith("@")) {
+                String action = word.substring(1);
+                if (!actions.contains(action)) {
+                    actions.add(action);
+                }
+                right.add(ACTION | actions.indexOf(action));
+            } else {
+                right.add(symbol(word));
+            }
+        }
+        if (empty != right.isEmpty()) {
+            throw new IllegalStateException("Grammar: " + names.get(left) + " ::= " + alternative
+                    + " must be either %empty or a list of symbols");
+        }
+        lefts.add(left);
+        rights.add(right.stream().mapToInt(Integer::intValue).toArray());
+        lookaheads.add(lookahead);
+    }
+
+    private int symbol(String word) {
+        int flags = 0;
+        while (word.startsWith("-") || word.startsWith("^")) {
+            flags |= word.charAt(0) == '-' ? NO_LEAF : OUTER;
+            word = word.substring(1);
+        }
+        if (isTerminal(word)) {
+            return TERMINAL | flags | terminal(word);
+        }
+        Integer id = ids.get(word);
+        if (id == null) {
+            throw new IllegalStateException("Grammar: " + word + " is neither a token type nor a rule");
+        }
+        if ((flags & NO_LEAF) != 0) {
+            throw new IllegalStateException("Grammar: -" + word + " is not a terminal");
+        }
+        return NONTERMINAL | flags | id;
+    }
+
+    private static boolean isTerminal(String word) {
+        for (TokenType type : TERMINALS) {
+            if (type.name().equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int terminal(String word) {
+        return TokenType.valueOf(word).ordinal();
+    }
+
+    // FIRST, FOLLOW and the parse table
+    private void build() {
+        int count = names.size();
+        nullable = new boolean[count];
+        first = new BitSet[count];
+        follow = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            first[i] = new BitSet();
+            follow[i] = new BitSet();
+        }
+        for (int i = 0; i < count; i++) {
+            if (!lefts.contains(i)) {
+                throw new IllegalStateException("Grammar: rule " + names.get(i) + " has no productions");
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < rights.size(); p++) {
+                int left = lefts.get(p);
+                BitSet before = (BitSet) first[left].clone();
+                boolean empty = firstOf(rights.get(p), 0, first[left]);
+                if (empty && !nullable[left]) {
+                    nullable[left] = true;
+                    changed = true;
+                }
+                changed |= !before.equals(first[left]);
+            }
+        }
+
+        follow[0].set(END_OF_INPUT);
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < rights.size(); p++) {
+                int[] right = rights.get(p);
+                for (int i = 0; i < right.length; i++) {
+                    if ((right[i] & KIND_MASK) != NONTERMINAL) {
+                        continue;
+                    }
+                    BitSet target = follow[right[i] & ID_MASK];
+                    BitSet before = (BitSet) target.clone();
+                    if (firstOf(right, i + 1, target)) {
+                        target.or(follow[lefts.get(p)]);
+                    }
+                    changed |= !before.equals(target);
+                }
+            }
+        }
+
+        table = new int[count][END_OF_INPUT + 1];
+        // How the entry was chosen: 3 = "on", 2 = FIRST, 1 = FOLLOW
+        int[][] strength = new int[count][END_OF_INPUT + 1];
+        for (int[] row : table) {
+            Arrays.fill(row, -1);
+        }
+        for (int p = 0; p < rights.size(); p++) {
+            int left = lefts.get(p);
+            if (lookaheads.get(p) != null) {
+                enter(left, p, lookaheads.get(p), 3, strength);
+                continue;
+            }
+            BitSet starts = new BitSet();
+            boolean empty = firstOf(rights.get(p), 0, starts);
+            enter(left, p, starts, 2, strength);
+            if (empty) {
+                BitSet follows = (BitSet) follow[left].clone();
+                follows.andNot(starts);
+                enter(left, p, follows, 1, strength);
+            }
+        }
+
+        predictions = new int[count * (END_OF_INPUT + 1)];
+        for (int n = 0; n < count; n++) {
+            System.arraycopy(table[n], 0, predictions, n * (END_OF_INPUT + 1), END_OF_INPUT + 1);
+        }
+        nodeKinds = kinds.toArray(new NodeKind[0]);
+        listedNodes = new boolean[count];
+        detachedNodes = new boolean[count];
+        for (int n = 0; n < count; n++) {
+            listedNodes[n] = listed.get(n);
+            detachedNodes[n] = detached.get(n);
+        }
+        rightSides = rights.toArray(new int[0][]);
+        withActions = new boolean[rightSides.length];
+        for (int p = 0; p < rightSides.length; p++) {
+            for (int symbol : rightSides[p]) {
+                withActions[p] |= (symbol & KIND_MASK) == ACTION;
+            }
+        }
+    }
+
+    // Add FIRST of right[from..] to into; returns whether that part can be empty
+    private boolean firstOf(int[] right, int from, BitSet into) {
+        for (int i = from; i < right.length; i++) {
+            switch (right[i] & KIND_MASK) {
+                case TERMINAL -> {
+                    into.set(right[i] & ID_MASK);
+                    return false;
+                }
+                case NONTERMINAL -> {
+                    int id = right[i] & ID_MASK;
+                    into.or(first[id]);
+                    if (!nullable[id]) {
+                        return false;
+                    }
+                }
+                default -> {
+                    // Actions match nothing
+                }
+            }
+        }
+        return true;
+    }
+
+    private void enter(int left, int production, BitSet terminals, int how, int[][] strength) {
+        for (int t = terminals.nextSetBit(0); t >= 0; t = terminals.nextSetBit(t + 1)) {
+            int existing = table[left][t];
+            if (existing < 0 || how > strength[left][t]) {
+                if (existing >= 0) {
+                    conflicts.add(conflict(left, t, production, existing));
+                }
+                table[left][t] = production;
+                strength[left][t] = how;
+            } else if (how < strength[left][t]) {
+                conflicts.add(conflict(left, t, existing, production));
+            } else if (existing != production) {
+                throw new IllegalStateException("Grammar is not LL(1): " + names.get(left) + " on "
+                        + terminalName(t) + " could be " + production(existing) + " or " + production(production));
+            }
+        }
+    }
+
+    private String conflict(int left, int terminal, int chosen, int dropped) {
+        return names.get(left) + " on " + terminalName(terminal) + ": " + production(chosen) + " over " + production(dropped);
+    }
+
+    public int start() {
+        return 0;
+    }
+
+    // Production to expand nonterminal by when the next token is terminal (a
+    // TokenType ordinal, or END_OF_INPUT), or -1 if there is none
+    public int predict(int nonterminal, int terminal) {
+        return predictions[nonterminal * (END_OF_INPUT + 1) + terminal];
+    }
+
+    public int[] right(int production) {
+        return rightSides[production];
+    }
+
+    public boolean hasActions(int production) {
+        return withActions[production];
+    }
+
+    // Kind of the node each production of nonterminal adds, or null
+    public NodeKind kind(int nonterminal) {
+        return nodeKinds[nonterminal];
+    }
+
+    public boolean isListed(int nonterminal) {
+        return listedNodes[nonterminal];
+    }
+
+    public boolean isDetached(int nonterminal) {
+        return detachedNodes[nonterminal];
+    }
+
+    public List<String> actions() {
+        return actions;
+    }
+
+    // Error when no production of nonterminal fits the token at index
+    public String message(int nonterminal, TokenBuffer tokens, int index) {
+        String template = messages.get(nonterminal);
+        if (index >= tokens.size() && endMessages.get(nonterminal) != null) {
+            template = endMessages.get(nonterminal);
+        }
+        if (template == null) {
+            template = "Syntax Error Found: Unexpected {describe}";
+        }
+        return template.replace("{type}", String.valueOf(tokens.type(index)))
+                .replace("{text}", index < tokens.size() ? tokens.text(index) : "null")
+                .replace("{describe}", tokens.describe(index));
+    }
+
+    public String production(int production) {
+        StringBuilder text = new StringBuilder(names.get(lefts.get(production))).append(" ::=");
+        int[] right = rights.get(production);
+        if (right.length == 0) {
+            text.append(" %empty");
+        }
+        for (int symbol : right) {
+            text.append(' ');
+            if ((symbol & NO_LEAF) != 0) {
+                text.append('-');
+            }
+            if ((symbol & OUTER) != 0) {
+                text.append('^');
+            }
+            switch (symbol & KIND_MASK) {
+                case TERMINAL ->
+                    text.append(terminalName(symbol & ID_MASK));
+                case NONTERMINAL ->
+                    text.append(names.get(symbol & ID_MASK));
+                default ->
+                    text.append('@').append(actions.get(symbol & ID_MASK));
+            }
+        }
+        return text.toString();
+    }
+
+    private static String terminalName(int terminal) {
+        return terminal == END_OF_INPUT ? "$" : TERMINALS[terminal].name();
+    }
+
+    private String names(BitSet terminals) {
+        StringBuilder text = new StringBuilder("{");
+        for (int t = terminals.nextSetBit(0); t >= 0; t = terminals.nextSetBit(t + 1)) {
+            text.append(text.length() > 1 ? " " : "").append(terminalName(t));
+        }
+        return text.append('}').toString();
+    }
+
+    // Print the sets, the table and how conflicts were resolved
+    public static void main(String[] args) throws IOException {
+        Grammar grammar;
+        if (args.length > 0) {
+            try (InputStream in = new FileInputStream(args[0])) {
+                grammar = read(in);
+            }
+        } else {
+            grammar = recSPL();
+        }
+        System.out.println("Productions:");
+        for (int p = 0; p < grammar.rights.size(); p++) {
+            System.out.println("  " + p + ": " + grammar.production(p));
+        }
+        System.out.println();
+        for (int n = 0; n < grammar.names.size(); n++) {
+            System.out.println(grammar.names.get(n) + (grammar.nullable[n] ? " (nullable)" : ""));
+            System.out.println("  FIRST  " + grammar.names(grammar.first[n]));
+            System.out.println("  FOLLOW " + grammar.names(grammar.follow[n]));
+            StringBuilder row = new StringBuilder("  TABLE ");
+            for (int t = 0; t <= END_OF_INPUT; t++) {
+                if (grammar.table[n][t] >= 0) {
+                    row.append(' ').append(terminalName(t)).append('=').append(grammar.table[n][t]);
+                }
+            }
+            System.out.println(row);
+        }
+        if (!grammar.conflicts.isEmpty()) {
+            System.out.println();
+            System.out.println("Resolved conflicts:");
+            for (String conflict : grammar.conflicts) {
+                System.out.println("  " + conflict);
+            }
+        }
+    }
+}
@@ -0,0 +1,458 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Lexer and parser state for an edit-compile loop.
+//
+// edit() applies a text change to the last source. It re-lexes only the
+// stretch between the nearest safe cuts around the change (see ParallelLexer)
+// and splices the new tokens into the TokenBuffer. If the changed tokens all
+// lie inside one top-level unit (the main ALGO block or a top-level DECL),
+// only that unit is re-parsed. The new subtree is added at the end of the
+// arena and takes the place of the old one, and every other node is kept as
+// it was. When the edit moves unit boundaries or the unit no longer parses on
+// its own, the whole program is parsed again, so errors are reported as a full
+// compile would report them.
+//
+// A re-parsed DECL sees the global variables and its own scope. A full parse
+// never pops function scopes, and takes a variable's type from the outermost
+// scope declaring it, so there a DECL also sees the locals of the DECLs before
+// it, and a local of an earlier DECL decides the type of a later one with the
+// same name. So a re-parse falls back to the full parse when the unit's locals
+// change (a later unit may see them) or when an earlier unit first declares
+// one of them with another type. A variable that only a unit before it
+// declares is not found by the re-parse, which then fails and falls back too.
+// A re-parse may change the return types of the functions the unit declares,
+// which only the type checker looks at, but not their names or parameters.
+//
+// typeCheck() keeps one RecSPLTypeChecker until the next full parse, so it
+// walks only the re-parsed unit and the units whose view of the globals or of
+// a function's return type has changed since the last check.
+
+public class IncrementalFrontEnd {
+
+    private String source;
+    private TokenBuffer tokens;
+    private SyntaxTree syntaxTree;
+    // Global scope of the last full parse, shared by all unit re-parses
+    private SymbolTable globals;
+    private FunctionTable functionTable;
+    // Checker holding the verdicts of the last check, or null before the
+    // first check after a full parse
+    private RecSPLTypeChecker typeChecker;
+    private int nextNodeId;
+    // Top-level units in source order; empty when the pre-scan and the tree
+    // disagree, which forces a full parse on every edit
+    private final List<Unit> units = new ArrayList<>();
+    // Unit that declares each non-global variable first, in source order
+    private IntMap<Unit> firstDeclaring = new IntMap<>();
+    private boolean incremental;
+
+    private static final class Unit {
+        final int kind;
+        int parent;
+        // The unit's nodes are the arena nodes [node, lastNode]
+        int node;
+        int lastNode;
+        int firstToken;
+        int lastToken;
+        // Not yet applied to the token indexes of this unit's leaves
+        int pendingShift;
+        // Type of the first declaration of each non-global variable in the
+        // unit, parameters included, by name id
+        IntMap<Type> locals;
+
+        Unit(int kind, int parent, int node, int lastNode) {
+            this.kind = kind;
+            this.parent = parent;
+            this.node = node;
+            this.lastNode = lastNode;
+        }
+    }
+
+    public IncrementalFrontEnd(String source) throws Exception {
+        this.source = source;
+        this.tokens = TokenBuffer.lex(source);
+        parseAll();
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    // Leaves of units after an edit keep their old token indexes until the
+    // tree is asked for, so an edit does not walk the rest of the program
+    public SyntaxTree syntaxTree() {
+        for (Unit unit : units) {
+            if (unit.pendingShift != 0) {
+                syntaxTree.ast.shiftTokens(unit.node, unit.lastNode, unit.pendingShift);
+                unit.pendingShift = 0;
+            }
+        }
+        return syntaxTree;
+    }
+
+    public SymbolTable symbolTable() {
+        return globals;
+    }
+
+    public FunctionTable functionTable() {
+        return functionTable;
+    }
+
+    // Type check the current tree, reusing what the last check found for
+    // units that did not change
+    public boolean typeCheck() throws Exception {
+        return typeCheck(null);
+    }
+
+    // The same, also giving every error with its token to diagnostics when
+    // not null
+    public boolean typeCheck(Diagnostics diagnostics) throws Exception {
+        if (typeChecker == null) {
+            typeChecker = new RecSPLTypeChecker(functionTable);
+            typeChecker.reuseUnchangedUnits();
+        }
+        return typeChecker.check(syntaxTree(), diagnostics);
+    }
+
+    // Top-level units the last typeCheck walked; the others kept what the
+    // check before it found
+    public int unitsWalked() {
+        return typeChecker == null ? 0 : typeChecker.unitsWalked();
+    }
+
+    // Whether the last edit was handled without a full parse
+    public boolean wasIncremental() {
+        return incremental;
+    }
+
+    // Replace source[start, end) with replacement
+    public void edit(int start, int end, String replacement) throws Exception {
+        if (start < 0 || end < start || end > source.length()) {
+            throw new IllegalArgumentException("Edit range " + start + ".." + end + " is outside the source");
+        }
+        int delta = replacement.length() - (end - start);
+        String newSource = source.substring(0, start) + replacement + source.substring(end);
+
+        int cutStart = cutBefore(source, start);
+        int cutEnd = cutAfter(source, end);
+        int from = firstTokenAt(cutStart);
+        int to = firstTokenAt(cutEnd);
+        TokenBuffer relexed = TokenBuffer.lex(newSource, cutStart, cutEnd + delta, tokens.names());
+
+        TokenBuffer oldTokens = tokens;
+        source = newSource;
+        tokens = tokens.splice(newSource, from, to, relexed, delta);
+        if (syntaxTree != null) {
+            syntaxTree.ast.setTokens(tokens);
+        }
+
+        incremental = false;
+        try {
+            incremental = reparse(oldTokens, from, to, relexed.size());
+        } catch (Exception e) {
+            // Report whatever the full parse reports
+        }
+        if (!incremental) {
+            parseAll();
+        }
+    }
+
+    private void parseAll() throws Exception {
+        units.clear();
+        firstDeclaring = new IntMap<>();
+        syntaxTree = null;
+        // Node unids start again, so no verdict can be matched to its unit
+        typeChecker = null;
+        RecSPLParser parser = new RecSPLParser(tokens);
+        parser.parseProgram();
+        syntaxTree = parser.syntaxTree;
+        globals = parser.symbolTable.globalScopeCopy();
+        functionTable = parser.functionTable;
+        nextNodeId = parser.nodeIdCounter;
+        findUnits();
+    }
+
+    // Pair the pre-scanned unit ranges with the ALGO and top-level DECL nodes
+    private void findUnits() throws Exception {
+        List<Unit> found = new ArrayList<>();
+        Ast ast = syntaxTree.ast;
+        int program = ast.child(syntaxTree.root, NodeKind.PROG);
+        int algo = ast.child(program, NodeKind.ALGO);
+        if (algo >= 0 && ast.firstChild(algo) >= 0) {
+            found.add(new Unit(SourceUnits.ALGO, program, algo, lastNode(ast, algo)));
+        }
+        for (int functions = ast.child(program, NodeKind.FUNCTIONS); functions >= 0; functions = ast.child(functions, NodeKind.FUNCTIONS)) {
+            int decl = ast.child(functions, NodeKind.DECL);
+            found.add(new Unit(SourceUnits.DECL, functions, decl, lastNode(ast, decl)));
+        }
+        List<int[]> ranges = SourceUnits.scan(tokens);
+        if (ranges.size() != found.size()) {
+            return;
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            int[] range = ranges.get(i);
+            Unit unit = found.get(i);
+            if (range[0] != unit.kind) {
+                return;
+            }
+            unit.firstToken = range[1];
+            unit.lastToken = range[2];
+        }
+        for (Unit unit : found) {
+            unit.locals = localTypes(unit.node);
+            unit.locals.forEach((nameId, type) -> {
+                if (!firstDeclaring.containsKey(nameId)) {
+                    firstDeclaring.put(nameId, unit);
+                }
+            });
+        }
+        units.addAll(found);
+    }
+
+    // Re-parse the unit holding old tokens [from, to), now replaced by count
+    // new tokens. Returns false if the edit cannot be confined to one unit.
+    private boolean reparse(TokenBuffer oldTokens, int from, int to, int count) throws Exception {
+        int tokenDelta = count - (to - from);
+        if (tokenDelta == 0 && sameTokens(oldTokens, from, to)) {
+            // Whitespace only; the tree does not change
+            return syntaxTree != null;
+        }
+        int index = unitAt(from);
+        if (index < 0) {
+            return false;
+        }
+        Unit unit = units.get(index);
+        if (to > unit.lastToken + 1) {
+            return false;
+        }
+        int lastToken = unit.lastToken + tokenDelta;
+        List<int[]> check = SourceUnits.scan(tokens, unit.firstToken, lastToken + 1);
+        if (check.size() != 1 || check.get(0)[0] != unit.kind || check.get(0)[1] != unit.firstToken || check.get(0)[2] != lastToken) {
+            return false;
+        }
+
+        // Take the unit's functions out of the table so the re-parse can
+        // declare them again. The unit's leaves still index the old tokens.
+        if (unit.pendingShift != 0) {
+            syntaxTree.ast.shiftTokens(unit.node, unit.lastNode, unit.pendingShift);
+            unit.pendingShift = 0;
+        }
+        List<FunctionSignature> declared = new ArrayList<>();
+        collectFunctions(unit.node, oldTokens, declared);
+        for (FunctionSignature signature : declared) {
+            functionTable.remove(signature.getNameId());
+        }
+        RecSPLParser parser = new RecSPLParser(tokens, syntaxTree, globals, functionTable, nextNodeId);
+        int node = parser.parseUnit(unit.kind, unit.firstToken, unit.parent);
+        int lastNode = syntaxTree.ast.size() - 1;
+        if (parser.currentTokenIndex != lastToken + 1) {
+            return false;
+        }
+        // Calls in the other units were checked against the old parameter
+        // lists
+        List<FunctionSignature> redeclared = new ArrayList<>();
+        collectFunctions(node, tokens, redeclared);
+        if (!sameSignatures(declared, redeclared)) {
+            return false;
+        }
+        // The full parse would give the unit's variables the types of the
+        // locals before it
+        IntMap<Type> locals = localTypes(node);
+        if (!sameLocals(unit.locals, locals) || hidesEarlierLocal(unit, locals)) {
+            return false;
+        }
+
+        syntaxTree.ast.replaceChild(unit.parent, unit.node, node);
+        syntaxTree.retire(unit.node, unit.lastNode);
+        unit.node = node;
+        unit.lastNode = lastNode;
+        unit.lastToken = lastToken;
+        nextNodeId = parser.nodeIdCounter;
+        for (int i = index + 1; i < units.size(); i++) {
+            units.get(i).firstToken += tokenDelta;
+            units.get(i).lastToken += tokenDelta;
+            units.get(i).pendingShift += tokenDelta;
+        }
+        int[] moved = syntaxTree.compactIfSparse();
+        if (moved != null) {
+            for (Unit other : units) {
+                other.parent = moved[other.parent];
+                other.node = moved[other.node];
+                other.lastNode = moved[other.lastNode];
+            }
+        }
+        return true;
+    }
+
+    private boolean sameTokens(TokenBuffer oldTokens, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (oldTokens.type(i) != tokens.type(i) || !oldTokens.text(i).equals(tokens.text(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Index of the last unit starting at or before token, if token is inside it
+    private int unitAt(int token) {
+        int low = 0;
+        int high = units.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (units.get(mid).firstToken <= token) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && token <= units.get(high).lastToken ? high : -1;
+    }
+
+    // Signatures of the functions declared in a subtree, nested ones included,
+    // in preorder. Leaf token indexes are looked up in names.
+    private void collectFunctions(int top, TokenBuffer names, List<FunctionSignature> signatures) throws Exception {
+        Ast ast = syntaxTree.ast;
+        TreeWalker.walk(ast, top, new TreeWalker.Visitor() {
+            @Override
+            public boolean enter(int node) {
+                if (ast.is(node, NodeKind.HEADER)) {
+                    for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                        if (ast.isLeaf(child) && names.type(ast.token(child)) == TokenType.FNAME) {
+                            FunctionSignature signature = functionTable.get(names.symbol(ast.token(child)));
+                            if (signature != null) {
+                                signatures.add(signature);
+                            }
+                            break;
+                        }
+                    }
+                    return false;
+                }
+                // No functions are declared inside an ALGO
+                return !ast.isLeaf(node) && !ast.is(node, NodeKind.ALGO);
+            }
+        });
+    }
+
+    // Types of the first declarations of the non-global variables in a
+    // subtree, in preorder
+    private IntMap<Type> localTypes(int top) throws Exception {
+        Ast ast = syntaxTree.ast;
+        IntMap<Type> locals = new IntMap<>();
+        TreeWalker.walk(ast, top, new TreeWalker.Visitor() {
+            @Override
+            public boolean enter(int node) {
+                switch (ast.kind(node)) {
+                    case LOCVARS -> {
+                        // VTYPE VNAME [more declarations]
+                        int vtype = ast.firstChild(node);
+                        declare(ast.nextSibling(vtype), tokens.valueType(ast.token(ast.firstChild(vtype))));
+                    }
+                    case VNAME ->
+                        // A parameter
+                        declare(ast.firstChild(node), Type.NUM);
+                    default -> {
+                    }
+                }
+                // Nothing is declared inside an ALGO
+                return !ast.isLeaf(node) && !ast.is(node, NodeKind.ALGO);
+            }
+
+            private void declare(int leaf, Type type) {
+                int nameId = tokens.symbol(ast.token(leaf));
+                if (!globals.isGlobal(nameId) && !locals.containsKey(nameId)) {
+                    locals.put(nameId, type);
+                }
+            }
+        });
+        return locals;
+    }
+
+    private static boolean sameLocals(IntMap<Type> before, IntMap<Type> after) {
+        if (before.size() != after.size()) {
+            return false;
+        }
+        boolean[] same = {true};
+        before.forEach((nameId, type) -> same[0] &= after.get(nameId) == type);
+        return same[0];
+    }
+
+    // Whether a unit before unit first declares one of locals with another type
+    private boolean hidesEarlierLocal(Unit unit, IntMap<Type> locals) {
+        boolean[] hidden = {false};
+        locals.forEach((nameId, type) -> {
+            Unit first = firstDeclaring.get(nameId);
+            if (first != null && first != unit && first.locals.get(nameId) != type) {
+                hidden[0] = true;
+            }
+        });
+        return hidden[0];
+    }
+
+    private static boolean sameSignatures(List<FunctionSignature> before, List<FunctionSignature> after) {
+        if (before.size() != after.size()) {
+            return false;
+        }
+        for (int i = 0; i < before.size(); i++) {
+            FunctionSignature a = before.get(i);
+            FunctionSignature b = after.get(i);
+            if (!a.sameParameters(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The last node added for a unit, its 'end' leaf, found by following last
+    // children
+    private static int lastNode(Ast ast, int node) {
+        while (ast.lastChild(node) >= 0) {
+            node = ast.lastChild(node);
+        }
+        return node;
+    }
+
+    // Safe cuts: a whitespace position not preceded by '<' (see ParallelLexer).
+    // Both cuts and the characters before them are outside the edited range,
+    // so they are cuts in the new source as well.
+    private static int cutBefore(String text, int start) {
+        for (int pos = start - 1; pos > 0; pos--) {
+            if (isWhitespace(text.charAt(pos)) && text.charAt(pos - 1) != '<') {
+                return pos;
+            }
+        }
+        return 0;
+    }
+
+    private static int cutAfter(String text, int end) {
+        for (int pos = end + 1; pos < text.length(); pos++) {
+            if (isWhitespace(text.charAt(pos)) && text.charAt(pos - 1) != '<') {
+                return pos;
+            }
+        }
+        return text.length();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f' || c == '\r' || c == '\n';
+    }
+
+    // Index of the first token starting at or after offset
+    private int firstTokenAt(int offset) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.offset(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
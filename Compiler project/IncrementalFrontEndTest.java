@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks that an edit handled by IncrementalFrontEnd is accepted or rejected
+// exactly as a full parse of the edited source would be, that it re-parses
+// only one unit when it can and leaves the tree a full parse would build, and
+// that typeCheck() after an edit walks only the units it has to and reports
+// what a check of a full parse would.
+// Run with: java IncrementalFrontEndTest
+
+public class IncrementalFrontEndTest {
+
+    // F_b's V_x is text in a full parse, which takes the type from F_a's
+    // local, so assigning it a number must fail there and here
+    private static final String LOCAL_OF_EARLIER_DECL = String.join("\n",
+            "main",
+            "num V_g ,",
+            "begin",
+            "V_g = 1;",
+            "end",
+            "num F_a(V_p, V_q, V_r)",
+            "{",
+            "text V_x , num V_y",
+            "begin",
+            "V_x = \"Ab\";",
+            "return V_y;",
+            "end",
+            "}",
+            "end",
+            "num F_b(V_p, V_q, V_r)",
+            "{",
+            "num V_x , num V_z",
+            "begin",
+            "V_x = \"Hi\";",
+            "return V_z;",
+            "end",
+            "}",
+            "end");
+
+    // The main ALGO calls F_a; F_b calls F_a and drops the number it returns,
+    // which only the type checker reports; F_c calls nothing
+    private static final String FOUR_UNITS = String.join("\n",
+            "main",
+            "num V_g ,",
+            "begin",
+            "V_g = F_a(1, 2, 3);",
+            "end",
+            "num F_a(V_p, V_q, V_r)",
+            "{",
+            "num V_x , num V_y",
+            "begin",
+            "V_x = 1;",
+            "return V_x;",
+            "end",
+            "}",
+            "end",
+            "num F_b(V_p, V_q, V_r)",
+            "{",
+            "num V_x , num V_y",
+            "begin",
+            "F_a(V_p, V_q, V_r);",
+            "return V_p;",
+            "end",
+            "}",
+            "end",
+            "num F_c(V_p, V_q, V_r)",
+            "{",
+            "num V_x , num V_y",
+            "begin",
+            "V_x = add(V_p, V_q);",
+            "return V_x;",
+            "end",
+            "}",
+            "end");
+
+    // A DECL to add between F_b and F_c, which moves the unit boundaries
+    private static final String NEW_DECL = String.join("\n",
+            "void F_d(V_p, V_q, V_r)",
+            "{",
+            "num V_x , num V_y",
+            "begin",
+            "halt;",
+            "end",
+            "}",
+            "end",
+            "");
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = checkEdit("local of an earlier DECL", LOCAL_OF_EARLIER_DECL, "\"Hi\"", "5");
+        passed &= checkTree("re-parse of one DECL", FOUR_UNITS, "add(V_p, V_q)", "sub(V_q, mul(V_p, 2))", true);
+        passed &= checkTree("re-parse of the main ALGO", FOUR_UNITS, "V_g = F_a(1, 2, 3);", "V_g = F_a(1, 2, 3);\nprint V_g;", true);
+        passed &= checkTree("whitespace only", FOUR_UNITS, "V_x = 1;", "  V_x  =\n 1 ;", true);
+        passed &= checkTree("new DECL between two others", FOUR_UNITS, "num F_c", NEW_DECL + "num F_c", false);
+        passed &= checkRecheck("edit inside one DECL", FOUR_UNITS, "V_x = 1;", "V_x = 2;", 1);
+        passed &= checkRecheck("changed return type", FOUR_UNITS, "num F_a", "void F_a", 3);
+        passed &= checkRecheck("cached errors after tokens move", FOUR_UNITS, "V_x = 1;", "V_x = 1;\nV_y = 2;", 1);
+        System.out.println(passed ? "All checks passed." : "Some checks failed.");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    // Replace the first occurrence of from with to, incrementally and by a
+    // full parse of the result, and compare the outcomes
+    private static boolean checkEdit(String name, String source, String from, String to) throws Exception {
+        IncrementalFrontEnd frontEnd = new IncrementalFrontEnd(source);
+        int start = source.indexOf(from);
+        String edited = source.substring(0, start) + to + source.substring(start + from.length());
+        String incremental = outcome(() -> frontEnd.edit(start, start + from.length(), to));
+        String full = outcome(() -> new RecSPLParser(TokenBuffer.lex(edited)).parseProgram());
+        boolean passed = incremental.equals(full);
+        System.out.println((passed ? "PASS " : "FAIL ") + name + ": incremental " + incremental + ", full parse " + full);
+        return passed;
+    }
+
+    // Replace the first occurrence of from with to; the edit must be handled
+    // incrementally or not as expected, and leave the tree a full parse of
+    // the result builds
+    private static boolean checkTree(String name, String source, String from, String to, boolean expected) throws Exception {
+        IncrementalFrontEnd frontEnd = new IncrementalFrontEnd(source);
+        int start = source.indexOf(from);
+        frontEnd.edit(start, start + from.length(), to);
+        RecSPLParser parser = new RecSPLParser(TokenBuffer.lex(frontEnd.source()));
+        parser.parseProgram();
+        boolean sameTree = shape(frontEnd.syntaxTree()).equals(shape(parser.syntaxTree));
+        boolean passed = frontEnd.wasIncremental() == expected && sameTree;
+        System.out.println((passed ? "PASS " : "FAIL ") + name + ": incremental " + frontEnd.wasIncremental() + ", same tree as a full parse " + sameTree);
+        return passed;
+    }
+
+    // Each node in order, with its depth, symbol and, for a leaf, its text;
+    // unids are left out, as re-parsed nodes get new ones
+    private static String shape(SyntaxTree syntaxTree) {
+        Ast ast = syntaxTree.ast;
+        StringBuilder shape = new StringBuilder();
+        for (int node = syntaxTree.root; node >= 0; node = ast.next(node, syntaxTree.root)) {
+            int depth = 0;
+            for (int up = node; up != syntaxTree.root; up = ast.parent(up)) {
+                depth++;
+            }
+            shape.append(depth).append(' ').append(ast.symbol(node));
+            if (ast.isLeaf(node)) {
+                shape.append(' ').append(ast.text(node));
+            }
+            shape.append('\n');
+        }
+        return shape.toString();
+    }
+
+    // Check, make the edit, and check again; the edit must be handled
+    // incrementally, the second check must walk walked units, and its errors
+    // must be those of a check of a full parse, at the same positions
+    private static boolean checkRecheck(String name, String source, String from, String to, int walked) throws Exception {
+        IncrementalFrontEnd frontEnd = new IncrementalFrontEnd(source);
+        frontEnd.typeCheck();
+        int start = source.indexOf(from);
+        frontEnd.edit(start, start + from.length(), to);
+        Diagnostics incremental = new Diagnostics(frontEnd.tokens());
+        frontEnd.typeCheck(incremental);
+
+        RecSPLParser parser = new RecSPLParser(TokenBuffer.lex(frontEnd.source()));
+        parser.parseProgram();
+        Diagnostics full = new Diagnostics(parser.syntaxTree.ast.tokens());
+        new RecSPLTypeChecker(parser.functionTable, full).check(parser.syntaxTree);
+
+        List<String> found = messages(incremental);
+        boolean passed = frontEnd.wasIncremental() && frontEnd.unitsWalked() == walked && found.equals(messages(full));
+        System.out.println((passed ? "PASS " : "FAIL ") + name + ": incremental " + frontEnd.wasIncremental()
+                + ", units walked " + frontEnd.unitsWalked() + ", errors " + found + ", full check " + messages(full));
+        return passed;
+    }
+
+    private static List<String> messages(Diagnostics diagnostics) {
+        List<String> messages = new ArrayList<>();
+        for (Diagnostics.Diagnostic diagnostic : diagnostics.all()) {
+            messages.add(diagnostics.format(diagnostic));
+        }
+        return messages;
+    }
+
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private static String outcome(Step step) {
+        try {
+            step.run();
+            return "accepted";
+        } catch (Exception e) {
+            return "rejected (" + e.getMessage() + ")";
+        }
+    }
+}
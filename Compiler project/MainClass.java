@@ -1,45 +1,139 @@
+import java.io.IOException;
 import java.nio.file.*;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class MainClass {
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java -jar CompilerProject.jar <inputFile> <outputFile>");
+        if (args.length < 2) {
+            System.out.println("Usage: java -jar CompilerProject.jar <inputFile> <outputFile> [options]");
+            System.out.println("Options:");
+            System.out.println("  --regex-lexer     lex with the regex engine instead of the DFA scanner");
+            System.out.println("  --mmap            memory-map the input file instead of reading it into a String");
+            System.out.println("  --parallel-lexer  lex large inputs in chunks on a fork/join pool");
+            System.out.println("  --parallel-parser parse top-level functions in parallel on a fork/join pool");
+            System.out.println("  --table-parser    parse with the LL(1) table built from recspl.grammar (experimental, slower)");
+            System.out.println("  --parallel-check  type check main and top-level functions in parallel on a fork/join pool");
+            System.out.println("  --binary          write tokens_output.bin and syntax_tree.bin instead of XML");
+            System.out.println("  --ast             write the compacted abstract syntax tree instead of the parse tree");
+            System.out.println("  --share-expressions write the abstract syntax tree with each distinct expression kept once");
+            System.out.println("  --all-errors      recover from errors and write all of them to errors.txt");
             return;
         }
 
         String inputFile = args[0];
         String outputFile = args[1];
+        boolean useDFA = true;
+        boolean useMmap = false;
+        boolean parallelLexer = false;
+        boolean parallelParser = false;
+        boolean tableParser = false;
+        boolean parallelCheck = false;
+        boolean binary = false;
+        boolean abstractTree = false;
+        boolean shareExpressions = false;
+        boolean allErrors = false;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--regex-lexer" ->
+                    useDFA = false;
+                case "--mmap" ->
+                    useMmap = true;
+                case "--parallel-lexer" ->
+                    parallelLexer = true;
+                case "--parallel-parser" ->
+                    parallelParser = true;
+                case "--table-parser" ->
+                    tableParser = true;
+                case "--parallel-check" ->
+                    parallelCheck = true;
+                case "--binary" ->
+                    binary = true;
+                case "--ast" ->
+                    abstractTree = true;
+                case "--share-expressions" -> {
+                    abstractTree = true;
+                    shareExpressions = true;
+                }
+                case "--all-errors" ->
+                    allErrors = true;
+                default -> {
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+                }
+            }
+        }
+        // The table parser has no parallel mode and would ignore the pool
+        if (parallelParser && tableParser) {
+            System.out.println("--parallel-parser cannot be combined with --table-parser");
+            return;
+        }
 
         try {
             // Step 1: Read input file
-            String input = new String(Files.readAllBytes(Paths.get(inputFile)));
-            System.out.println("Input file contents:\n" + input);
-            
+            CharSequence input;
+            if (useMmap) {
+                // Scanned straight out of the mapping; not echoed, since that
+                // would decode the whole file
+                input = MappedSource.open(Paths.get(inputFile));
+            } else {
+                input = new String(Files.readAllBytes(Paths.get(inputFile)));
+                System.out.println("Input file contents:\n" + input);
+            }
 
             // Step 2: Lexing process - generate tokens
-            List<Token> tokens = RecSPLLexer.lex(input);
-            RecSPLLexer.writeTokensToXML(tokens, "tokens_output.xml");
+            TokenBuffer tokens = parallelLexer ? ParallelLexer.lex(input) : RecSPLLexer.lexBuffer(input, useDFA);
+            if (binary) {
+                RecSPLLexer.writeTokensToBinary(tokens, "tokens_output.bin");
+            } else {
+                RecSPLLexer.writeTokensToXML(tokens, "tokens_output.xml");
+            }
             System.out.println("Lexing completed successfully. No errors found.");
 
             // Step 3: Parsing process
-            Node rootNode = new Node(0, "ROOT", null);
-            RecSPLParser parser = new RecSPLParser(tokens, rootNode);
-            parser.parseProgram();
-            parser.syntaxTree.toXML("syntax_tree.xml");
+            Diagnostics diagnostics = allErrors ? new Diagnostics(tokens) : null;
+            RecSPLParser parser = new RecSPLParser(tokens, diagnostics);
+            if (parallelParser) {
+                parser.parseInParallel(ForkJoinPool.commonPool());
+            }
+            // The table parser stops at the first error, so --all-errors keeps
+            // to the recursive one
+            if (tableParser && diagnostics != null) {
+                System.out.println("--table-parser stops at the first error; parsing with the recursive-descent parser for --all-errors");
+            }
+            if (tableParser && diagnostics == null) {
+                parser.parseProgramTableDriven();
+            } else {
+                parser.parseProgram();
+            }
+            if (diagnostics != null && !diagnostics.isEmpty()) {
+                reportErrors(diagnostics);
+                return;
+            }
+            SyntaxTree syntaxTree = abstractTree ? AstCompactor.compact(parser.syntaxTree, shareExpressions) : parser.syntaxTree;
+            if (binary) {
+                syntaxTree.toBinary("syntax_tree.bin");
+            } else {
+                syntaxTree.toXML("syntax_tree.xml");
+            }
             System.out.println("Parsing completed successfully. No syntax errors found.");
 
-            // Step 4: Semantic Analysis
-            Node functionNode = new Node(0, "ROOT", null);
-            RecSPLParser parserFunction = new RecSPLParser(parser, functionNode);
-            parserFunction.parseProgram();
+            // Step 4: Semantic Analysis (function calls are resolved at the end of the parse)
             System.out.println("Semantic Analysis completed successfully.");
 
-            // Step 5: Typechecking
-            RecSPLTypeChecker typeChecker = new RecSPLTypeChecker(parser.symbolTable);
-            if (typeChecker.check(tokens)) {
+            // Step 5: Typechecking, over the parse tree even when the AST was written
+            RecSPLTypeChecker typeChecker = new RecSPLTypeChecker(parser.functionTable, diagnostics);
+            if (parallelCheck) {
+                typeChecker.checkInParallel(ForkJoinPool.commonPool());
+            }
+            boolean typesChecked = typeChecker.check(parser.syntaxTree);
+            if (diagnostics != null) {
+                reportErrors(diagnostics);
+            }
+            // Frame addresses of the variables, for the code generator
+            VariableSlots slots = VariableSlots.resolve(parser.syntaxTree);
+            if (typesChecked) {
                 System.out.println("Type checking successful.");
-                CodeGenerator codeGenerator = new CodeGenerator(tokens, parserFunction.symbolTable, parserFunction.functionTable);
+                CodeGenerator codeGenerator = new CodeGenerator(tokens, parser.symbolTable, parser.functionTable, slots);
                 String code = codeGenerator.translate();
                 codeGenerator.writeFormattedCodeToFile(outputFile);
                 System.out.println("Code written to " + outputFile);
@@ -53,7 +147,7 @@ public class MainClass {
             }
 
             // Step 6: Code Generation
-            CodeGenerator codeGenerator = new CodeGenerator(tokens, parserFunction.symbolTable, parserFunction.functionTable);
+            CodeGenerator codeGenerator = new CodeGenerator(tokens, parser.symbolTable, parser.functionTable, slots);
             String code = codeGenerator.translate();
             codeGenerator.writeFormattedCodeToFile(outputFile);
             System.out.println("Code written to " + outputFile);
@@ -67,4 +161,13 @@ public class MainClass {
             System.err.println("Error: " + e.getMessage());
         }
     }
+
+    // Write every error found to errors.txt (empty if there were none)
+    private static void reportErrors(Diagnostics diagnostics) throws IOException {
+        diagnostics.writeTo("errors.txt");
+        for (Diagnostics.Diagnostic diagnostic : diagnostics.all()) {
+            System.err.println(diagnostics.format(diagnostic));
+        }
+        System.out.println(diagnostics.size() + " error(s) written to errors.txt");
+    }
 }
@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Source file memory-mapped through a FileChannel and exposed as a
+// CharSequence without decoding or copying it.
+//
+// RecSPL's lexical grammar is pure ASCII, so every byte is read as one char.
+// Bytes outside ASCII can never start a token and are skipped by the scanner
+// just like the characters they would have decoded to. Text is only copied out
+// of the mapping when subSequence/toString is called for it.
+
+public final class MappedSource implements CharSequence {
+
+    private final MappedByteBuffer buffer;
+    private final int length;
+
+    private MappedSource(MappedByteBuffer buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    public static MappedSource open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Input file " + path + " is too large to map (" + size + " bytes).");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedSource(buffer, (int) size);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(index) & 0xff);
+    }
+
+    // Materialises the text of [from, to) as a String
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return text(from, to);
+    }
+
+    public String text(int from, int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for length " + length);
+        }
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return text(0, length);
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+// Interning pool for VNAME/FNAME identifiers.
+//
+// Every distinct name gets a dense int id (0, 1, 2, ...) the first time the
+// lexer sees it, so later phases can compare names with == and index tables by
+// id instead of hashing Strings. Names are hashed straight from the source text,
+// so a String is only created for the first occurrence of each name.
+
+public final class NamePool {
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    // Open-addressing table of id + 1 (0 marks an empty slot)
+    private int[] slots = new int[128];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    // Id of text[start, end), adding it to the pool if it is new
+    public int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(names[id], text, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = text.subSequence(start, end).toString();
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    // Id of the name, or -1 if it was never interned
+    public int find(String name) {
+        int hash = hash(name, 0, name.length());
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        // Spread the bits, since names tend to differ only in their last characters
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
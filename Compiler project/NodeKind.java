@@ -0,0 +1,42 @@
+// Kinds of syntax tree nodes. The name of each constant is the SYMB written
+// for it in syntax_tree.xml.
+//
+// Every leaf has kind LEAF; what it stands for is the type of its token.
+// COMMAND nodes for skip, halt and return carry that keyword as a lexeme and
+// are written with it instead of "COMMAND". So do print commands in the
+// abstract tree (see AstCompactor), where SHARED stands for a repeat of an
+// expression that is kept once.
+
+public enum NodeKind {
+    ROOT, PROG, GLOBVARS, VTYPE, ALGO, INSTRUC,
+    COMMAND, ASSIGN, CALL, BRANCH,
+    COND, SIMPLE, COMPOSITE,
+    TERM, UNOP, BINOP, ARG,
+    FUNCTIONS, DECL, HEADER, FTYP,
+    VNAME, // a function parameter
+    BODY, LOCVARS,
+    SHARED,
+    LEAF;
+
+    private static final NodeKind[] VALUES = values();
+
+    public static NodeKind of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    // Kind of an inner node written with this SYMB
+    public static NodeKind forSymbol(String symbol) {
+        switch (symbol) {
+            case "skip", "halt", "return", "print" -> {
+                return COMMAND;
+            }
+            default -> {
+                try {
+                    return valueOf(symbol);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalStateException("Unknown node kind " + symbol);
+                }
+            }
+        }
+    }
+}
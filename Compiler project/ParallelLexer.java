@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Fork/join lexing for large sources.
+//
+// RecSPL has no multi-line tokens, and no token contains whitespace except
+// INPUT ("< input"). So the source can be cut inside any whitespace run, except
+// right after a '<', and each piece can be lexed on its own. The pieces are
+// lexed with RecSPLScanner on a ForkJoinPool and then joined in source order.
+// Token ids come from the joined buffer's positions, so they are numbered
+// exactly as in a sequential pass, and the token stream is identical.
+
+public final class ParallelLexer {
+
+    // Below this many characters per chunk the fork/join overhead is not worth it
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private ParallelLexer() {
+    }
+
+    public static TokenBuffer lex(CharSequence source) {
+        return lex(source, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public static TokenBuffer lex(CharSequence source, ForkJoinPool pool, int chunkSize) {
+        List<int[]> chunks = split(source, chunkSize);
+        if (chunks.size() == 1) {
+            return TokenBuffer.lex(source);
+        }
+        List<ChunkTask> tasks = new ArrayList<>(chunks.size());
+        for (int[] chunk : chunks) {
+            ChunkTask task = new ChunkTask(source, chunk[0], chunk[1]);
+            pool.execute(task);
+            tasks.add(task);
+        }
+        List<TokenBuffer> parts = new ArrayList<>(tasks.size());
+        for (ChunkTask task : tasks) {
+            parts.add(task.join());
+        }
+        return TokenBuffer.concat(source, new NamePool(), parts);
+    }
+
+    // Cut the source into [start, end) ranges of roughly chunkSize characters
+    static List<int[]> split(CharSequence source, int chunkSize) {
+        List<int[]> chunks = new ArrayList<>();
+        int length = source.length();
+        int start = 0;
+        while (start < length) {
+            int end = safeSplit(source, Math.min(length, start + chunkSize));
+            chunks.add(new int[] {start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    // First position at or after target where a new chunk can start, moving
+    // the cut forward past any token that would straddle it
+    private static int safeSplit(CharSequence source, int target) {
+        int length = source.length();
+        for (int pos = Math.max(target, 1); pos < length; pos++) {
+            if (isWhitespace(source.charAt(pos)) && source.charAt(pos - 1) != '<') {
+                return pos;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f' || c == '\r' || c == '\n';
+    }
+
+    private static final class ChunkTask extends RecursiveTask<TokenBuffer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence source;
+        private final int from;
+        private final int to;
+
+        ChunkTask(CharSequence source, int from, int to) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TokenBuffer compute() {
+            // Each chunk interns into its own pool; concat() merges them in order
+            return TokenBuffer.lex(source, from, to, new NamePool());
+        }
+    }
+}
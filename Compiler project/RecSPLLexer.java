@@ -1,16 +1,12 @@
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.regex.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
 
 public class RecSPLLexer {
     // Token Types Enum
@@ -48,7 +44,7 @@ public class RecSPLLexer {
     //     }
     // }
     // Lexer Method
-    public static List<Token> lex(String input) throws Exception {
+    public static List<Token> lex(CharSequence input) throws Exception {
         List<Token> tokens = new ArrayList<>();
         int tokenId = 1;
 
@@ -72,47 +68,97 @@ public class RecSPLLexer {
         }
 
         if (matcher.find()) {
-            throw new Exception("Lexical error: Unrecognized token '" + input.substring(matcher.start(), matcher.end()) + "' at position " + matcher.start());
+            throw new Exception("Lexical error: Unrecognized token '" + input.subSequence(matcher.start(), matcher.end()) + "' at position " + matcher.start());
         }
 
         return tokens;
     }
 
+    // Same token stream as lex(), produced by the hand-written DFA in
+    // RecSPLScanner instead of the regex alternation
+    public static List<Token> lexDFA(CharSequence input) {
+        List<Token> tokens = new ArrayList<>();
+        RecSPLScanner.scan(input, (type, start, end)
+                -> tokens.add(new Token(type, RecSPLScanner.text(input, type, start, end), tokens.size() + 1)));
+        return tokens;
+    }
+
+    // Lex with either engine; both produce the same tokens
+    public static List<Token> lex(CharSequence input, boolean useDFA) throws Exception {
+        return useDFA ? lexDFA(input) : lex(input);
+    }
+
+    // Lex into a packed TokenBuffer with either engine
+    public static TokenBuffer lexBuffer(CharSequence input, boolean useDFA) throws Exception {
+        return useDFA ? TokenBuffer.lex(input) : TokenBuffer.of(lex(input));
+    }
+
+    // Streamed with StAX straight to a buffered file writer, in the layout the
+    // DOM Transformer used to produce (4-space indent, standalone="no")
+    public static void writeTokensToXML(TokenBuffer tokens, String outputPath) throws Exception {
+        try (Writer out = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+            XMLStreamWriter xml = startTokenStream(out, tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                writeToken(xml, tokens.id(i), tokens.type(i), tokens.text(i));
+            }
+            endTokenStream(xml, tokens.size());
+        }
+    }
+
     public static void writeTokensToXML(List<Token> tokens, String outputPath) throws Exception {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        Document doc = docBuilder.newDocument();
-        Element rootElement = doc.createElement("TOKENSTREAM");
-        doc.appendChild(rootElement);
-        for (Token token : tokens) {
-            Element tokenElement = doc.createElement("TOK");
-    
-            Element id = doc.createElement("ID");
-            id.appendChild(doc.createTextNode(String.valueOf(token.id)));
-            tokenElement.appendChild(id);
-    
-            Element tokenClass = doc.createElement("CLASS");
-            tokenClass.appendChild(doc.createTextNode(token.type.name()));
-            tokenElement.appendChild(tokenClass);
-    
-            Element word = doc.createElement("WORD");
-            word.appendChild(doc.createTextNode(token.data));
-            tokenElement.appendChild(word);
-    
-            rootElement.appendChild(tokenElement);
+        try (Writer out = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+            XMLStreamWriter xml = startTokenStream(out, tokens.size());
+            for (Token token : tokens) {
+                writeToken(xml, token.id, token.type, token.data);
+            }
+            endTokenStream(xml, tokens.size());
         }
-    
-        // Configure the transformer to add indentation
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-    
-        DOMSource source = new DOMSource(doc);
-        StreamResult result = new StreamResult(new File(outputPath));
-        transformer.transform(source, result);
     }
-    
+
+    // Compact, memory-mappable alternative to the XML dump (see BinaryFormat)
+    public static void writeTokensToBinary(TokenBuffer tokens, String outputPath) throws IOException {
+        BinaryFormat.writeTokens(tokens, outputPath);
+    }
+
+    private static XMLStreamWriter startTokenStream(Writer out, int count) throws Exception {
+        // StAX cannot write standalone="no", so the declaration goes out as is
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+        XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        if (count == 0) {
+            xml.writeEmptyElement("TOKENSTREAM");
+        } else {
+            xml.writeStartElement("TOKENSTREAM");
+        }
+        return xml;
+    }
+
+    private static void writeToken(XMLStreamWriter xml, int id, TokenType type, String word) throws Exception {
+        xml.writeCharacters("\n    ");
+        xml.writeStartElement("TOK");
+        writeElement(xml, "ID", Integer.toString(id));
+        writeElement(xml, "CLASS", type.name());
+        writeElement(xml, "WORD", word);
+        xml.writeCharacters("\n    ");
+        xml.writeEndElement();
+    }
+
+    private static void writeElement(XMLStreamWriter xml, String name, String text) throws Exception {
+        xml.writeCharacters("\n        ");
+        xml.writeStartElement(name);
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+    }
+
+    private static void endTokenStream(XMLStreamWriter xml, int count) throws Exception {
+        if (count > 0) {
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+        }
+        xml.writeCharacters("\n");
+        xml.flush();
+        xml.close();
+    }
+
     public static void main(String[] args) {
         System.out.println(args.length);
         if (args.length != 1) {
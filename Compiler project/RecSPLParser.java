@@ -1,10 +1,10 @@
 
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class RecSPLParser {
 
@@ -40,62 +40,99 @@ public class RecSPLParser {
     //         return String.format("(%d: %s, \"%s\")", id, type.name(), data);
     //     }
     // }
-    final List<Token> tokens;
+    final TokenBuffer tokens;
     int currentTokenIndex;
     int nodeIdCounter = 0;
     final SyntaxTree syntaxTree;
+    // Arena of syntaxTree that the parse methods add nodes to. Nodes added as
+    // not listed (ALGO, INSTRUC, conditions and operators) get no IN record.
+    private final Ast ast;
     //private final Stack<Map<String, String>> symbolTableStack;
     SymbolTable symbolTable;
-    Map<String, FunctionSignature> functionTable;
-    String darkart = "darkart";
+    FunctionTable functionTable;
+    // Collects the errors when the parser recovers from them; null to stop at
+    // the first one
+    private final Diagnostics diagnostics;
+    // Pool to parse the top-level DECLs on, or null to parse them in order
+    private ForkJoinPool pool;
+    // Calls seen so far, checked once every DECL has been parsed
+    private final List<CallSite> callSites = new ArrayList<>();
+
+    private static final class CallSite {
+
+        final int token;
+        final Type[] argumentTypes;
+
+        CallSite(int token, Type[] argumentTypes) {
+            this.token = token;
+            this.argumentTypes = argumentTypes;
+        }
+    }
 
     private int getNextNodeId() {
         return nodeIdCounter++;
     }
 
-    public RecSPLParser(List<Token> tokens, Node node) {
+    public RecSPLParser(List<Token> tokens) {
+        this(TokenBuffer.of(tokens));
+    }
+
+    public RecSPLParser(TokenBuffer tokens) {
+        this(tokens, null);
+    }
+
+    // With diagnostics, errors are recorded there and parsing goes on: a
+    // syntax error skips to the next ';' of the instruction list it is in, or
+    // to the '}' of the function it is in; a scope or type error skips nothing
+    public RecSPLParser(TokenBuffer tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
         this.currentTokenIndex = 0;
-        this.syntaxTree = new SyntaxTree(node);
+        this.ast = new Ast(tokens, tokens.size() * 2);
+        this.syntaxTree = new SyntaxTree(ast, ast.addNode(0, NodeKind.ROOT, -1, false));
         // this.symbolTableStack = new Stack<>();
-        this.symbolTable = new SymbolTable();
-        this.functionTable = new HashMap<>();
+        this.symbolTable = new SymbolTable(tokens.names());
+        this.functionTable = new FunctionTable(tokens.names());
 
         // Push the global scope onto the stack
         // this.symbolTableStack.push(new HashMap<>());
     }
 
-    public RecSPLParser(RecSPLParser parser, Node node) {
-        this.tokens = parser.tokens;
-        this.currentTokenIndex = 0;
-        this.syntaxTree = new SyntaxTree(node);
-        // this.symbolTableStack = new Stack<>();
-        this.symbolTable = new SymbolTable();
-        this.functionTable = parser.functionTable;
-        //  System.out.println("Function table size: " + functionTable.size());
-        functionTable.forEach((key, value) -> {
-            // System.out.println(key + " : " + value);
-            // System.out.println(value.getParamTypes());
-        });
-        parser.functionTable.forEach((key, value) -> {
-            // System.out.println(key + " : " + value);
-            // System.out.println(value.getParamTypes());
-        });
-        // Push the global scope onto the stack
-        // this.symbolTableStack.push(new HashMap<>());
+    // Parser that adds to an existing tree, used to re-parse a single unit of it
+    RecSPLParser(TokenBuffer tokens, SyntaxTree syntaxTree, SymbolTable symbolTable, FunctionTable functionTable, int nodeIdCounter) {
+        this.tokens = tokens;
+        this.syntaxTree = syntaxTree;
+        this.ast = syntaxTree.ast;
+        this.symbolTable = symbolTable;
+        this.functionTable = functionTable;
+        this.nodeIdCounter = nodeIdCounter;
+        this.diagnostics = null;
+    }
 
+    // Parser for one top-level DECL starting at firstToken, run by a DeclTask.
+    // Its tree is the DECL under a placeholder root; unids start at 0.
+    private RecSPLParser(TokenBuffer tokens, SymbolTable symbolTable, int firstToken, int lastToken) {
+        this.tokens = tokens;
+        this.currentTokenIndex = firstToken;
+        this.ast = new Ast(tokens, (lastToken - firstToken + 1) * 2);
+        this.syntaxTree = new SyntaxTree(ast, ast.addNode(-1, NodeKind.FUNCTIONS, -1, false));
+        this.symbolTable = symbolTable;
+        this.functionTable = new FunctionTable(tokens.names());
+        this.diagnostics = null;
     }
 
-    private Token getCurrentToken() {
-        if (currentTokenIndex < tokens.size()) {
-            return tokens.get(currentTokenIndex);
-        } else {
-            return null; // End of input
-        }
+    // Parse the top-level function declarations on pool, one task per DECL.
+    // Has no effect when errors are collected.
+    public void parseInParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
 
+    // Type of the token at index, or null at the end of input
+    private TokenType type(int index) {
+        return tokens.type(index);
     }
 
-    public Map<String, FunctionSignature> getFunctionTable() {
+    public FunctionTable getFunctionTable() {
         return functionTable;
     }
 
@@ -103,23 +140,48 @@ public class RecSPLParser {
         currentTokenIndex++;
     }
 
-    private void expect(TokenType expectedType, Node parentNode) throws Exception {
-        Token token = getCurrentToken();
-        if (token == null || token.type != expectedType) {
-            throw new Exception("Syntax Error Found: Expected " + expectedType + " but found " + (token != null ? token.type : "null"));
+    private CompileError syntaxError(int token, String message) {
+        return new CompileError(Diagnostics.Kind.SYNTAX, token, message);
+    }
+
+    // Scope and type errors leave the parse intact, so they only stop it when
+    // there is nowhere to record them
+    private void semanticError(Diagnostics.Kind kind, int token, String message) throws CompileError {
+        if (diagnostics == null) {
+            throw new CompileError(kind, token, message);
+        }
+        diagnostics.report(kind, token, message);
+    }
+
+    // Record error and skip to the end of the instruction it is in. Returns
+    // true if a ';' was found, false at 'end', '}' or the end of input.
+    private boolean recover(CompileError error) throws CompileError {
+        if (diagnostics == null) {
+            throw error;
+        }
+        diagnostics.report(error);
+        while (type(currentTokenIndex) != null && type(currentTokenIndex) != TokenType.SEMICOLON
+                && type(currentTokenIndex) != TokenType.END && type(currentTokenIndex) != TokenType.EPILOG) {
+            consume();
+        }
+        if (type(currentTokenIndex) == TokenType.SEMICOLON) {
+            consume();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(TokenType expectedType, int parentNode) throws Exception {
+        int token = currentTokenIndex;
+        if (type(token) != expectedType) {
+            throw syntaxError(token, "Syntax Error Found: Expected " + expectedType + " but found " + type(token));
         }
         // Node childNode = new Node(nodeIdCounter++, token.type.toString());
         // parentNode.addChild(childNode);
         // consume();
-        // Create a new leaf node for this token
+        // Create a new leaf node for this token, the last child of the parent node
         // System.out.println("Creating leaf node for token: " + token.type.toString());
-        LeafNode leafNode = new LeafNode(parentNode.getUnid(), getNextNodeId(), token.data, token.type.toString());
-
-        // Add the leaf node to the tree
-        syntaxTree.addLeafNode(leafNode);
-
-        // Add this leaf node's UNID as a child of the parent node
-        parentNode.addChild(leafNode);
+        ast.addLeaf(getNextNodeId(), parentNode, token);
 
         consume(); // Move to the next token
     }
@@ -127,70 +189,250 @@ public class RecSPLParser {
     // Recursive Descent Functions
     // <PROG> ::= main GLOBVARS ALGO FUNCTIONS
     public void parseProgram() throws Exception {
-        Node programNode = new Node(nodeIdCounter++, "PROG", syntaxTree.root);
-        this.syntaxTree.root.addChild(programNode);
-
-        expect(TokenType.MAIN, programNode); // match 'main'
-        parseGlobVars(programNode);          // match global variables
-        parseAlgo(programNode);              // match algorithm block
-        if (functionTable.isEmpty()) {
-            //System.out.println("Function table is empty");
-        } else {
-            functionTable = new HashMap<>();
+        int programNode = ast.addNode(nodeIdCounter++, NodeKind.PROG, syntaxTree.root, false);
 
+        try {
+            expect(TokenType.MAIN, programNode); // match 'main'
+            parseGlobVars(programNode);          // match global variables
+            parseAlgo(programNode);              // match algorithm block
+            if (functionTable.isEmpty()) {
+                //System.out.println("Function table is empty");
+            } else {
+                functionTable = new FunctionTable(tokens.names());
+
+            }
+            parseTopLevelFunctions(programNode); // match functions
+        } catch (CompileError e) {
+            // Nothing to resynchronise on outside instructions and functions
+            if (diagnostics == null) {
+                throw e;
+            }
+            diagnostics.report(e);
+            return;
         }
-        parseFunctions(programNode);         // match functions
+        resolveCalls();                      // check calls against the declared functions
         //   System.out.println("End of program");
     }
 
-    // <GLOBVARS> ::= VTYP VNAME , GLOBVARS | // nullable
-    public void parseGlobVars(Node parentNode) throws Exception {
-        Token token = getCurrentToken();
-        if (token == null) {
-            return;
+    // Semantic actions named in recspl.grammar (@enter, @global, ...)
+    private enum Action {
+        ENTER, EXIT, GLOBAL, LOCAL, PARAM, USE, DECLARED, ASSIGN, CALL, FUNCTION, LEXEME
+    }
+
+    // Marks the end of a production on the table parser's stack
+    private static final int END_OF_PRODUCTION = 3 << 28;
+
+    // The same parse as parseProgram, driven by the LL(1) table built from
+    // recspl.grammar instead of the parse methods. Each production on the stack
+    // has a frame: the node it added (or the enclosing one), that node's parent,
+    // and its first token, which the actions count from. A production that
+    // adds no node and has no actions shares the enclosing frame, and a frame
+    // whose production has nothing left to match is dropped before its last
+    // symbol is expanded, so the right-nested lists do not grow the stack.
+    // Stops at the first error.
+    public void parseProgramTableDriven() throws Exception {
+        Grammar grammar = Grammar.recSPL();
+        Action[] actions = new Action[grammar.actions().size()];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = Action.valueOf(grammar.actions().get(i).toUpperCase());
+        }
+        int[] stack = new int[64];
+        int top = 0;
+        int[] frameNodes = new int[32];
+        int[] frameParents = new int[32];
+        int[] frameStarts = new int[32];
+        int frame = 0;
+        frameNodes[0] = syntaxTree.root;
+        frameParents[0] = -1;
+        frameStarts[0] = currentTokenIndex;
+        stack[top++] = Grammar.NONTERMINAL | grammar.start();
+
+        while (top > 0) {
+            int symbol = stack[--top];
+            if (symbol == END_OF_PRODUCTION) {
+                frame--;
+                continue;
+            }
+            int parent = (symbol & Grammar.OUTER) != 0 ? frameParents[frame] : frameNodes[frame];
+            int id = symbol & Grammar.ID_MASK;
+            int token = currentTokenIndex;
+            int next = tokens.typeOrdinal(token);
+            switch (symbol & Grammar.KIND_MASK) {
+                case Grammar.TERMINAL -> {
+                    if (next != id) {
+                        throw syntaxError(token, "Syntax Error Found: Expected " + TokenType.values()[id] + " but found " + type(token));
+                    }
+                    if ((symbol & Grammar.NO_LEAF) == 0) {
+                        ast.addLeaf(getNextNodeId(), parent, token);
+                    }
+                    consume();
+                }
+                case Grammar.ACTION ->
+                    runAction(actions[id], frameStarts[frame], frameNodes[frame]);
+                default -> {
+                    int production = grammar.predict(id, next);
+                    if (production < 0) {
+                        throw syntaxError(token, grammar.message(id, tokens, token));
+                    }
+                    int nodeParent = frameParents[frame];
+                    int node = parent;
+                    if (grammar.kind(id) != null) {
+                        node = ast.addNode(getNextNodeId(), grammar.kind(id), grammar.isDetached(id) ? -1 : parent, grammar.isListed(id));
+                        nodeParent = parent;
+                    }
+                    // Frames with nothing left to match
+                    while (top > 0 && stack[top - 1] == END_OF_PRODUCTION) {
+                        top--;
+                        frame--;
+                    }
+                    int[] right = grammar.right(production);
+                    if (top + right.length + 1 > stack.length) {
+                        stack = Arrays.copyOf(stack, (top + right.length + 1) * 2);
+                    }
+                    if (node != frameNodes[frame] || nodeParent != frameParents[frame] || grammar.hasActions(production)) {
+                        if (++frame == frameNodes.length) {
+                            frameNodes = Arrays.copyOf(frameNodes, frame * 2);
+                            frameParents = Arrays.copyOf(frameParents, frame * 2);
+                            frameStarts = Arrays.copyOf(frameStarts, frame * 2);
+                        }
+                        frameNodes[frame] = node;
+                        frameParents[frame] = nodeParent;
+                        frameStarts[frame] = token;
+                        stack[top++] = END_OF_PRODUCTION;
+                    }
+                    for (int i = right.length - 1; i >= 0; i--) {
+                        stack[top++] = right[i];
+                    }
+                }
+            }
         }
-        if (token.type == TokenType.NUM || token.type == TokenType.TEXT) {
+        resolveCalls();
+    }
 
-            Node globVarsNode = new Node(nodeIdCounter++, "GLOBVARS", parentNode);
-            syntaxTree.addInnerNode(globVarsNode);
-            parentNode.addChild(globVarsNode);
+    // The checks the parse methods make, for the table parser. start is the
+    // first token of the production the action is in; the tokens it has
+    // matched so far end just before currentTokenIndex.
+    private void runAction(Action action, int start, int node) throws Exception {
+        int last = currentTokenIndex - 1;
+        switch (action) {
+            case ENTER ->
+                symbolTable.enterScope();
+            case EXIT ->
+                symbolTable.exitScope();
+            case GLOBAL, LOCAL -> {
+                // VTYPE VNAME
+                int varName = tokens.symbol(last);
+                if (symbolTable.isDeclaredInCurrentScope(varName)) {
+                    semanticError(Diagnostics.Kind.SCOPE, last, "Variable " + tokens.text(last) + " already declared globally.");
+                } else {
+                    symbolTable.addSymbol(varName, Type.of(type(last - 1)), null);
+                }
+            }
+            case PARAM ->
+                symbolTable.addSymbol(tokens.symbol(last), Type.NUM, null);
+            case USE -> {
+                if (getVariableType(tokens.symbol(last)) == null) {
+                    semanticError(Diagnostics.Kind.SCOPE, last, "Variable " + tokens.text(last) + " not declared.");
+                }
+            }
+            case DECLARED -> {
+                if (!isVariableDeclared(tokens.symbol(last))) {
+                    semanticError(Diagnostics.Kind.SCOPE, last, "Variable " + tokens.text(last) + " not declared.");
+                }
+            }
+            case ASSIGN -> {
+                // VNAME = TERM, with start at '='
+                int varToken = start - 1;
+                Type assignedType = termType(start + 1);
+                SymbolInfo variable = getVariableType(tokens.symbol(varToken));
+                if (variable != null && assignedType != null && variable.type != assignedType) {
+                    semanticError(Diagnostics.Kind.TYPE, varToken, "Type mismatch: cannot assign " + assignedType + " to " + variable.type + ".");
+                }
+            }
+            case CALL -> {
+                // FNAME ( ATOMIC , ATOMIC , ATOMIC )
+                callSites.add(new CallSite(start, new Type[] {atomicType(start + 2), atomicType(start + 4), atomicType(start + 6)}));
+            }
+            case FUNCTION -> {
+                // FTYP FNAME ( VNAME , ... )
+                int funcToken = start + 1;
+                int parameters = 0;
+                for (int token = start + 3; token < last; token++) {
+                    if (type(token) == TokenType.VNAME) {
+                        parameters++;
+                    }
+                }
+                int functionId = tokens.symbol(funcToken);
+                if (functionTable.containsKey(functionId)) {
+                    semanticError(Diagnostics.Kind.SCOPE, funcToken, "Scoping error: Function " + tokens.text(funcToken) + " is already declared.");
+                } else {
+                    functionTable.put(new FunctionSignature(functionId, tokens.text(funcToken), Type.of(type(start)), Type.numbers(parameters)));
+                }
+            }
+            case LEXEME ->
+                ast.setLexeme(node, tokens.text(last));
+        }
+    }
+
+    // Type of the ATOMIC at token, as parseAtomic gives it
+    private Type atomicType(int token) {
+        if (type(token) == TokenType.VNAME) {
+            SymbolInfo variable = getVariableType(tokens.symbol(token));
+            return variable == null ? null : variable.type;
+        }
+        return tokens.valueType(token);
+    }
 
-            String varType = parseVType(globVarsNode);
-            Token varToken = getCurrentToken();
+    // Type of the TERM starting at token, as parseTerm gives it: a call has the
+    // type of its last argument, an operation the type of its operator
+    private Type termType(int token) {
+        return switch (type(token)) {
+            case FNAME ->
+                atomicType(token + 6);
+            case UNOP, BINOP ->
+                expectedType(token);
+            default ->
+                atomicType(token);
+        };
+    }
+
+    // <GLOBVARS> ::= VTYP VNAME , GLOBVARS | // nullable
+    // The tail GLOBVARS is the last child of the one before it; parsed in a
+    // loop so a long list does not take a stack frame per variable
+    public void parseGlobVars(int parentNode) throws Exception {
+        while (type(currentTokenIndex) == TokenType.NUM || type(currentTokenIndex) == TokenType.TEXT) {
+            int globVarsNode = ast.addNode(nodeIdCounter++, NodeKind.GLOBVARS, parentNode, true);
+
+            Type varType = parseVType(globVarsNode);
+            int varToken = currentTokenIndex;
             expect(TokenType.VNAME, globVarsNode);
 
             // Semantic check: Add variable to global symbol table
-            Map<String, SymbolInfo> globalScope = symbolTable.symbolTableStack.peek();
-            if (globalScope.containsKey(varToken.data)) {
-                throw new Exception("Variable " + varToken.data + " already declared globally.");
+            int varName = tokens.symbol(varToken);
+            if (symbolTable.isDeclaredInCurrentScope(varName)) {
+                semanticError(Diagnostics.Kind.SCOPE, varToken, "Variable " + tokens.text(varToken) + " already declared globally.");
             } else {
                 // System.out.println("Adding variable " + varToken.data + " to global scope");
                 // System.out.println("Variable type: " + varType);
-                globalScope.put(varToken.data, new SymbolInfo(varType, null, varToken.data));
+                symbolTable.addSymbol(varName, varType, null);
             }
-            Token commaToken = getCurrentToken();
-            if (commaToken == null) {
+            if (type(currentTokenIndex) != TokenType.COMMA) {
                 return;
             }
-            if (commaToken.type == TokenType.COMMA) {
-                consume(); // consume comma
-                parseGlobVars(globVarsNode); // recursively parse more global vars
-            }
-        } else {
-            //  System.out.println("No global variables found");
+            consume(); // consume comma
+            parentNode = globVarsNode; // more global vars go under this one
         }
     }
 
     // <ALGO> ::= begin INSTRUC end
-    public void parseAlgo(Node parentNode) throws Exception {
+    public void parseAlgo(int parentNode) throws Exception {
         // System.out.println("Parsing algorithm block");
-        Node algoNode = new Node(nodeIdCounter++, "ALGO", parentNode);
-        parentNode.addChild(algoNode);
-        Token token = getCurrentToken();
-        if (token == null) {
+        int algoNode = ast.addNode(nodeIdCounter++, NodeKind.ALGO, parentNode, false);
+        int token = currentTokenIndex;
+        if (type(token) == null) {
             return;
         }
-        if (token.type != TokenType.VOID && token.type != TokenType.NUM) {
+        if (type(token) != TokenType.VOID && type(token) != TokenType.NUM) {
 
             expect(TokenType.BEGIN, algoNode);
 
@@ -208,34 +450,37 @@ public class RecSPLParser {
         }
     }
     // <INSTRUC> ::= COMMAND ; INSTRUC | // nullable
-
-    public void parseInstruc(Node parentNode) throws Exception {
-        Token token = getCurrentToken();
-        if (token != null && token.type != TokenType.END) {
-            Node instrucNode = new Node(nodeIdCounter++, "INSTRUC", parentNode);
-            parentNode.addChild(instrucNode);
-
-            parseCommand(instrucNode);
-            expect(TokenType.SEMICOLON, instrucNode);
-            parseInstruc(instrucNode); // recursively parse more instructions
+    // Same shape as the recursion (each INSTRUC holds the next), built in a loop
+    // so the stack depth does not grow with the length of the block
+    public void parseInstruc(int parentNode) throws Exception {
+        while (type(currentTokenIndex) != null && type(currentTokenIndex) != TokenType.END) {
+            int instrucNode = ast.addNode(nodeIdCounter++, NodeKind.INSTRUC, parentNode, false);
+
+            try {
+                parseCommand(instrucNode);
+                expect(TokenType.SEMICOLON, instrucNode);
+            } catch (CompileError e) {
+                if (!recover(e)) {
+                    return;
+                }
+            }
+            parentNode = instrucNode; // more instructions go under this one
         }
     }
 
     // <COMMAND> ::= skip | halt | print ATOMIC | ASSIGN | CALL | BRANCH
-    public void parseCommand(Node parentNode) throws Exception {
-        Node commandNode = new Node(getNextNodeId(), "COMMAND", parentNode);
-        syntaxTree.addInnerNode(commandNode);
-        parentNode.addChild(commandNode);
+    public void parseCommand(int parentNode) throws Exception {
+        int commandNode = ast.addNode(getNextNodeId(), NodeKind.COMMAND, parentNode, true);
 
-        Token token = getCurrentToken();
-        switch (token.type) {
+        int token = currentTokenIndex;
+        switch (type(token)) {
             case SKIP -> {
                 consume(); // match 'skip'
-                commandNode.setSymbol("skip");
+                ast.setLexeme(commandNode, "skip");
             }
             case HALT -> {
                 consume(); // match 'halt'
-                commandNode.setSymbol("halt");
+                ast.setLexeme(commandNode, "halt");
             }
             case PRINT -> {
                 consume(); // match 'print'
@@ -249,182 +494,126 @@ public class RecSPLParser {
                 parseBranch(commandNode);
             case RETURN -> {
                 consume(); // match 'return'
-                commandNode.setSymbol("return");
+                ast.setLexeme(commandNode, "return");
                 parseAtomic(commandNode); // parse the atomic expression after return
             }
             default ->
-                throw new Exception("Syntax Error Found: Unexpected command: " + token);
+                throw syntaxError(token, "Syntax Error Found: Unexpected command: " + tokens.describe(token));
         }
     }
 
     // Implement other rules similarly...
     // Helper methods
-    private String parseAtomic(Node parentNode) throws Exception {
-        Token token = getCurrentToken();
+    private Type parseAtomic(int parentNode) throws Exception {
+        int token = currentTokenIndex;
         // System.out.println(token.data);
-        if (token.type == TokenType.VNAME) {
+        if (type(token) == TokenType.VNAME) {
             expect(TokenType.VNAME, parentNode); // match variable name
-            return getVariableType(token.data).type; // return the type of the variable
-        } else if (token.type == TokenType.CONST) {
+            SymbolInfo variable = getVariableType(tokens.symbol(token));
+            if (variable == null) {
+                semanticError(Diagnostics.Kind.SCOPE, token, "Variable " + tokens.text(token) + " not declared.");
+                return null;
+            }
+            return variable.type; // return the type of the variable
+        } else if (type(token) == TokenType.CONST) {
             expect(TokenType.CONST, parentNode); // match constant
-            return getAssignedType(token.data); // Constants are treated as "text"
-        } else if (token.type == TokenType.CONST2) {
+            return tokens.valueType(token); // Constants are treated as "text"
+        } else if (type(token) == TokenType.CONST2) {
             expect(TokenType.CONST2, parentNode); // match constant number
-            return getAssignedType(token.data);
+            return tokens.valueType(token);
         } else {
-            throw new Exception("Syntax Error Found:  " + token.type);
+            throw syntaxError(token, "Syntax Error Found:  " + type(token));
         }
     }
 
-    private void parseAssign(Node parentNode) throws Exception {
-        Node assignNode = new Node(nodeIdCounter++, "ASSIGN", parentNode);
-        syntaxTree.addInnerNode(assignNode);
-        parentNode.addChild(assignNode);
+    private void parseAssign(int parentNode) throws Exception {
+        int assignNode = ast.addNode(nodeIdCounter++, NodeKind.ASSIGN, parentNode, true);
 
-        Token varToken = getCurrentToken();
+        int varToken = currentTokenIndex;
         expect(TokenType.VNAME, assignNode);
 
         // Check if variable is declared in current scope or global scope
-        if (!isVariableDeclared(varToken.data)) {
-            throw new Exception("Variable " + varToken.data + " not declared.");
+        if (!isVariableDeclared(tokens.symbol(varToken))) {
+            semanticError(Diagnostics.Kind.SCOPE, varToken, "Variable " + tokens.text(varToken) + " not declared.");
         }
 
-        Token token = getCurrentToken();
-        if (null == token.type) {
-            throw new Exception("Syntax Error Found: Invalid assignment syntax");
+        int token = currentTokenIndex;
+        if (null == type(token)) {
+            throw syntaxError(token, "Syntax Error Found: Invalid assignment syntax");
         } else {
-            switch (token.type) {
+            switch (type(token)) {
                 case EQUALS -> {
                     consume(); // match '='
-                    String assignedType = parseTerm(assignNode);
+                    Type assignedType = parseTerm(assignNode);
                     // Check if assigned value matches the declared type
-                    String varType = getVariableType(varToken.data).type;
+                    SymbolInfo variable = getVariableType(tokens.symbol(varToken));
                     // System.out.println("Variable type: " + varType);
                     // System.out.println("Assigned type: " + assignedType);
-                    if (!varType.equals(assignedType)) {
-                        throw new Exception("Type mismatch: cannot assign " + assignedType + " to " + varType + ".");
+                    // Either type is unknown only after an error that was already reported
+                    if (variable != null && assignedType != null && variable.type != assignedType) {
+                        semanticError(Diagnostics.Kind.TYPE, varToken, "Type mismatch: cannot assign " + assignedType + " to " + variable.type + ".");
                     }
                 }
                 case INPUT ->
                     consume(); // match '< input'
                 default ->
-                    throw new Exception("Invalid assignment syntax");
+                    throw syntaxError(token, "Invalid assignment syntax");
             }
         }
     }
 
-    private String parseCall(Node parentNode) throws Exception {
-        Node callNode = new Node(nodeIdCounter++, "CALL", parentNode);
-        syntaxTree.addInnerNode(callNode);
-        parentNode.addChild(callNode);
-        String type = "num";
-        Token funcToken = getCurrentToken();
+    private Type parseCall(int parentNode) throws Exception {
+        int callNode = ast.addNode(nodeIdCounter++, NodeKind.CALL, parentNode, true);
+        int funcToken = currentTokenIndex;
         expect(TokenType.FNAME, callNode);
 
-        // Check if the function is declared
-        if (darkart.equals("notdarkart")) {
-            // System.out.println("Not Dark art");
-
-            if (!functionTable.containsKey(funcToken.data)) {
-                throw new Exception("Function " + funcToken.data + " not declared.");
-            }
-            if (functionTable == null) {
-                // System.out.println("Function table is null");
-            }
-            FunctionSignature signature = functionTable.get(funcToken.data);
-            expect(TokenType.LPAREN, callNode);
-            List<String> argumentTypes = parseArguments(callNode, signature.getParamTypes()); // Match arguments
-            expect(TokenType.RPAREN, callNode);
-
-            // System.out.println(argumentTypes.size());
-            // System.out.println(signature.getParamTypes().size());
-            // Check if the number and types of arguments match the function signature
-            if (!signature.parameterSizeMatch(argumentTypes)) {
-                throw new Exception("Function " + funcToken.data + " called with incorrect number of arguments.");
-            }
-            if (!signature.parameterTypeCheck(argumentTypes)) {
-                throw new Exception("Function " + funcToken.data + " called with incorrect argument types. (Type mismatch)");
-            }
-
-            for (int i = 0; i < functionTable.size(); i++) {
-                if (signature == functionTable.get(funcToken.data)) {
-                    //  System.out.println("Function signature matches");
-                    functionTable.remove(funcToken.data);
-                } else {
-                    throw new Exception("Function signature does not match");
-                }
-            }
-
-        } else {
-
-            expect(TokenType.LPAREN, callNode);
-            parseAtomic(callNode);
-            expect(TokenType.COMMA, callNode);
-            parseAtomic(callNode);
-            expect(TokenType.COMMA, callNode);
-            type = parseAtomic(callNode);
-            expect(TokenType.RPAREN, callNode);
-        }
-        return type;
+        // Only recorded here: the function may be declared further down, so the
+        // call is checked against its signature in resolveCalls()
+        Type[] argumentTypes = new Type[3];
+        expect(TokenType.LPAREN, callNode);
+        argumentTypes[0] = parseAtomic(callNode);
+        expect(TokenType.COMMA, callNode);
+        argumentTypes[1] = parseAtomic(callNode);
+        expect(TokenType.COMMA, callNode);
+        argumentTypes[2] = parseAtomic(callNode);
+        expect(TokenType.RPAREN, callNode);
+        callSites.add(new CallSite(funcToken, argumentTypes));
+        return argumentTypes[2];
     }
 
-    private List<String> parseArguments(Node parentNode, List<String> expectedTypes) throws Exception {
-        List<String> argumentTypes = new ArrayList<>();
-        Token token = getCurrentToken();
-        if (token.type == TokenType.VNAME || token.type == TokenType.CONST) {
-            Node argumentsNode = new Node(nodeIdCounter++, "ARGUMENTS", parentNode);
-            syntaxTree.addInnerNode(argumentsNode);
-            parentNode.addChild(argumentsNode);
-
-            argumentTypes.add(parseAtomic(argumentsNode));
-
-            if (getCurrentToken().type == TokenType.COMMA) {
-                consume(); // Consume ',' and parse next argument
-                argumentTypes.addAll(parseArguments(argumentsNode, expectedTypes));
+    // Check the recorded calls against the function table, in source order
+    void resolveCalls() throws Exception {
+        for (CallSite call : callSites) {
+            FunctionSignature signature = functionTable.get(tokens.symbol(call.token));
+            if (signature == null) {
+                semanticError(Diagnostics.Kind.SCOPE, call.token, "Function " + tokens.text(call.token) + " not declared.");
+            } else if (!signature.parameterSizeMatch(call.argumentTypes)) {
+                semanticError(Diagnostics.Kind.TYPE, call.token, "Function " + tokens.text(call.token) + " called with incorrect number of arguments.");
+            } else if (!signature.parameterTypeCheck(call.argumentTypes)) {
+                semanticError(Diagnostics.Kind.TYPE, call.token, "Function " + tokens.text(call.token) + " called with incorrect argument types. (Type mismatch)");
             }
         }
-        return argumentTypes;
+        callSites.clear();
     }
 
     // Helper function to check if a variable is declared in any active scope
-    private boolean isVariableDeclared(String varName) {
-        for (Map<String, SymbolInfo> scope : symbolTable.symbolTableStack) {
-            if (scope.containsKey(varName)) {
-                return true;
-            }
-        }
-        return false;
+    private boolean isVariableDeclared(int varName) {
+        return symbolTable.containsSymbol(varName);
     }
 
-    private SymbolInfo getVariableType(String varName) {
-        for (Map<String, SymbolInfo> scope : symbolTable.symbolTableStack) {
-            if (scope.containsKey(varName)) {
-                // System.out.println("Variable " + varName + " found in scope");
-                // System.out.println("Variable type: " + scope.get(varName));
-                return scope.get(varName);
-            }
-        }
-        return null; // Variable not found
-    }
-
-    private String getAssignedType(String assignName) {
-        if (assignName.matches("\"[A-Z][a-z0-9]{0,7}\"")) {
-            return "text";
-        } else {
-            return "num";
-        }
+    // A variable's type comes from the outermost scope declaring it
+    private SymbolInfo getVariableType(int varName) {
+        return symbolTable.lookupOutermost(varName);
     }
 
     // Helper function to infer the type of an expression
-    private String inferExpressionType() {
-        // Example implementation, returning "num" or "text" based on the expression
-        return "num"; // placeholder
+    private Type inferExpressionType() {
+        // Example implementation, returning NUM or TEXT based on the expression
+        return Type.NUM; // placeholder
     }
 
-    private void parseBranch(Node parentNode) throws Exception {
-        Node branchNode = new Node(nodeIdCounter++, "BRANCH", parentNode);
-        syntaxTree.addInnerNode(branchNode);
-        parentNode.addChild(branchNode);
+    private void parseBranch(int parentNode) throws Exception {
+        int branchNode = ast.addNode(nodeIdCounter++, NodeKind.BRANCH, parentNode, true);
 
         expect(TokenType.IF, branchNode);
         parseCond(branchNode);
@@ -434,35 +623,33 @@ public class RecSPLParser {
         parseAlgo(branchNode);
     }
 
-    private void parseCond(Node parentNode) throws Exception {
-        Token currentToken = getCurrentToken();
-        Node condNode = new Node(nodeIdCounter++, "COND"); // If it's a BINOP or UNOP, decide whether it's SIMPLE or COMPOSITE based on next tokens
-        if (currentToken.type == TokenType.BINOP) {
+    private void parseCond(int parentNode) throws Exception {
+        int currentToken = currentTokenIndex;
+        int condNode = ast.addNode(nodeIdCounter++, NodeKind.COND, -1, false); // If it's a BINOP or UNOP, decide whether it's SIMPLE or COMPOSITE based on next tokens
+        if (type(currentToken) == TokenType.BINOP) {
             // Could be either SIMPLE or COMPOSITE
 
             expect(TokenType.BINOP, condNode);  // Expect BINOP
             expect(TokenType.LPAREN, condNode); // Expect '('
-            Token lookahead = getCurrentToken();
+            int lookahead = currentTokenIndex;
 
-            if (lookahead.type == TokenType.VNAME || lookahead.type == TokenType.CONST) {
+            if (type(lookahead) == TokenType.VNAME || type(lookahead) == TokenType.CONST) {
                 // It's a SIMPLE condition
                 parseSimple(parentNode);
             } else {
                 // It's a COMPOSITE condition
                 parseComposit(parentNode);
             }
-        } else if (currentToken.type == TokenType.UNOP) {
+        } else if (type(currentToken) == TokenType.UNOP) {
             // COMPOSITE condition with a unary operation
             parseComposit(parentNode);
         } else {
-            throw new Exception("Syntax Error Found: Expected BINOP or UNOP in condition but found: " + currentToken.type);
+            throw syntaxError(currentToken, "Syntax Error Found: Expected BINOP or UNOP in condition but found: " + type(currentToken));
         }
     }
 
-    private void parseSimple(Node parentNode) throws Exception {
-        Node simpleNode = new Node(nodeIdCounter++, "SIMPLE");
-        syntaxTree.addInnerNode(simpleNode);
-        parentNode.addChild(simpleNode);
+    private void parseSimple(int parentNode) throws Exception {
+        int simpleNode = ast.addNode(nodeIdCounter++, NodeKind.SIMPLE, parentNode, false);
 
         // expect(TokenType.BINOP, simpleNode);  // Expect BINOP
         // expect(TokenType.LPAREN, simpleNode); // Expect '('
@@ -474,14 +661,12 @@ public class RecSPLParser {
     }
 
     // Parsing Composite Condition (COMPOSITE)
-    private void parseComposit(Node parentNode) throws Exception {
-        Node compositeNode = new Node(nodeIdCounter++, "COMPOSITE");
-        syntaxTree.addInnerNode(compositeNode);
-        parentNode.addChild(compositeNode);
+    private void parseComposit(int parentNode) throws Exception {
+        int compositeNode = ast.addNode(nodeIdCounter++, NodeKind.COMPOSITE, parentNode, false);
 
-        Token currentToken = getCurrentToken();
+        int currentToken = currentTokenIndex;
 
-        if (currentToken.type == TokenType.UNOP) {
+        if (type(currentToken) == TokenType.UNOP) {
             // COMPOSITE condition with a unary operation
             expect(TokenType.UNOP, compositeNode);  // Expect UNOP
             expect(TokenType.LPAREN, compositeNode); // Expect '('
@@ -489,7 +674,7 @@ public class RecSPLParser {
             parseSimple(compositeNode);              // Parse a single SIMPLE condition
 
             expect(TokenType.RPAREN, compositeNode); // Expect ')'
-        } else if (currentToken.type == TokenType.BINOP) {
+        } else if (type(currentToken) == TokenType.BINOP) {
             // COMPOSITE condition with a binary operation
             // expect(TokenType.BINOP, compositeNode);  // Expect BINOP
             // expect(TokenType.LPAREN, compositeNode); // Expect '('
@@ -503,18 +688,16 @@ public class RecSPLParser {
 
             expect(TokenType.RPAREN, compositeNode); // Expect ')'
         } else {
-            throw new Exception("Syntax Error Found: Expected UNOP or BINOP for COMPOSITE condition but found: " + currentToken.type);
+            throw syntaxError(currentToken, "Syntax Error Found: Expected UNOP or BINOP for COMPOSITE condition but found: " + type(currentToken));
         }
     }
 
-    private String parseTerm(Node parentNode) throws Exception {
-        Node termNode = new Node(nodeIdCounter++, "TERM", parentNode);
-        syntaxTree.addInnerNode(termNode);
-        parentNode.addChild(termNode);
-        Token token = getCurrentToken();
-        String type = "";
-        if (null != token.type) {
-            switch (token.type) {
+    private Type parseTerm(int parentNode) throws Exception {
+        int termNode = ast.addNode(nodeIdCounter++, NodeKind.TERM, parentNode, true);
+        int token = currentTokenIndex;
+        Type type = null;
+        if (null != type(token)) {
+            switch (type(token)) {
                 case FNAME ->
                     type = parseCall(termNode);
                 case VNAME, CONST, CONST2 ->
@@ -522,41 +705,39 @@ public class RecSPLParser {
                 case UNOP, BINOP ->
                     type = parseOp(termNode);
                 default ->
-                    throw new Exception("Syntax Error Found: Expected term but found " + token);
+                    throw syntaxError(token, "Syntax Error Found: Expected term but found " + tokens.describe(token));
             }
         } else {
-            throw new Exception("Syntax Error Found: Expected term but found " + token);
+            throw syntaxError(token, "Syntax Error Found: Expected term but found " + tokens.describe(token));
         }
         return type;
     }
 
     // Parsing OP (either Unary or Binary Operation)
-    private String parseOp(Node parentNode) throws Exception {
-        Token currentToken = getCurrentToken();
-        String type = expectedType(currentToken);
-        if (null == currentToken.type) {
-            throw new Exception("Syntax Error Found: Expected UNOP or BINOP, but found: " + currentToken.type);
+    private Type parseOp(int parentNode) throws Exception {
+        int currentToken = currentTokenIndex;
+        Type type = expectedType(currentToken);
+        if (null == type(currentToken)) {
+            throw syntaxError(currentToken, "Syntax Error Found: Expected UNOP or BINOP, but found: " + type(currentToken));
         } else // Determine whether it's a unary or binary operation based on the next token
         {
-            switch (currentToken.type) {
+            switch (type(currentToken)) {
                 case UNOP -> // If it's a unary operation
                     parseUnaryOp(parentNode);
                 case BINOP -> // If it's a binary operation
                     parseBinaryOp(parentNode);
                 default ->
-                    throw new Exception("Syntax Error Found: Expected UNOP or BINOP, but found: " + currentToken.type);
+                    throw syntaxError(currentToken, "Syntax Error Found: Expected UNOP or BINOP, but found: " + type(currentToken));
             }
         }
         return type;
     }
 
 // Parsing Unary Operation
-    private String parseUnaryOp(Node parentNode) throws Exception {
-        Node unopNode = new Node(nodeIdCounter++, "UNOP");
-        syntaxTree.addInnerNode(unopNode);
-        parentNode.addChild(unopNode);
-        Token token = getCurrentToken();
-        String type = expectedType(token);
+    private Type parseUnaryOp(int parentNode) throws Exception {
+        int unopNode = ast.addNode(nodeIdCounter++, NodeKind.UNOP, parentNode, false);
+        int token = currentTokenIndex;
+        Type type = expectedType(token);
         expect(TokenType.UNOP, unopNode); // Expect UNOP
         expect(TokenType.LPAREN, unopNode); // Expect '('
 
@@ -566,32 +747,20 @@ public class RecSPLParser {
         return type;
     }
 
-    private String expectedType(Token token) {
-        switch (token.data) {
-            case "not":
-            case "and":
-            case "or":
-                return "bool";
-            case "eq":
-            case "sqrt":
-            case "grt": // greater than >
-            case "add":
-            case "sub":
-            case "mul":
-            case "div":
-                return "num";
-            default:
-                throw new AssertionError("Sytax Error Found: Unexpected token: " + token.data);
+    // Type of the value the operator at token gives (see Type.resultOf)
+    private Type expectedType(int token) {
+        Type type = Type.resultOf(tokens.text(token));
+        if (type == null) {
+            throw new AssertionError("Sytax Error Found: Unexpected token: " + tokens.text(token));
         }
+        return type;
     }
 
 // Parsing Binary Operation
-    private String parseBinaryOp(Node parentNode) throws Exception {
-        Node binopNode = new Node(nodeIdCounter++, "BINOP");
-        syntaxTree.addInnerNode(binopNode);
-        parentNode.addChild(binopNode);
-        Token token = getCurrentToken();
-        String type = expectedType(token);
+    private Type parseBinaryOp(int parentNode) throws Exception {
+        int binopNode = ast.addNode(nodeIdCounter++, NodeKind.BINOP, parentNode, false);
+        int token = currentTokenIndex;
+        Type type = expectedType(token);
 
         expect(TokenType.BINOP, binopNode); // Expect BINOP
         expect(TokenType.LPAREN, binopNode); // Expect '('
@@ -605,70 +774,256 @@ public class RecSPLParser {
     }
 
 // Parsing Argument (either ATOMIC or OP)
-    private void parseArg(Node parentNode) throws Exception {
-        Token currentToken = getCurrentToken();
-        if (null == currentToken.type) {
-            throw new Exception("Syntax Error Found: Expected ATOMIC or OP, but found: " + currentToken.type);
+    private void parseArg(int parentNode) throws Exception {
+        int currentToken = currentTokenIndex;
+        if (null == type(currentToken)) {
+            throw syntaxError(currentToken, "Syntax Error Found: Expected ATOMIC or OP, but found: " + type(currentToken));
         } else {
-            Node argNode = new Node(nodeIdCounter++, "ARG");
-            syntaxTree.addInnerNode(argNode);
-            parentNode.addChild(argNode);
-            switch (currentToken.type) {
+            int argNode = ast.addNode(nodeIdCounter++, NodeKind.ARG, parentNode, false);
+            switch (type(currentToken)) {
                 case VNAME, CONST, CONST2 -> // If it's an atomic value (identifier or number)
                     parseAtomic(parentNode);
                 case UNOP, BINOP -> // If it's an operation (recursive parsing of OP)
                     parseOp(parentNode);
                 default ->
-                    throw new Exception("Syntax Error Found: Expected ATOMIC or OP, but found: " + currentToken.type);
+                    throw syntaxError(currentToken, "Syntax Error Found: Expected ATOMIC or OP, but found: " + type(currentToken));
             }
         }
     }
 
     // <FUNCTIONS> ::= // nullable | DECL FUNCTIONS
-    public void parseFunctions(Node parentNode) throws Exception {
-        Token token = getCurrentToken();
-        if (token != null && token.type == TokenType.END) {
-            return;
-        }
-        if (token != null && (token.type == TokenType.NUM || token.type == TokenType.VOID)) {
-            Node functionsNode = new Node(nodeIdCounter++, "FUNCTIONS", parentNode);
-            syntaxTree.addInnerNode(functionsNode);
-            parentNode.addChild(functionsNode);
+    // Each FUNCTIONS holds the next one; parsed in a loop, as for INSTRUC
+    public void parseFunctions(int parentNode) throws Exception {
+        // FUNCTIONS nodes of the DECLs that failed to parse, innermost last;
+        // their sub-functions and 'end' are parsed by this loop, not parseBody
+        int[] failed = new int[8];
+        int failedCount = 0;
+        while (true) {
+            int token = currentTokenIndex;
+            if (type(token) == null) {
+                if (failedCount > 0) {
+                    diagnostics.report(syntaxError(token, "Syntax Error Found: Expected " + TokenType.END + " but found " + type(token)));
+                }
+                return;
+            }
+            if (failedCount > 0 && type(token) != TokenType.NUM && type(token) != TokenType.VOID) {
+                // The 'end' of the innermost failed DECL; if it is missing, say
+                // so and let the token close the DECLs around it
+                int functionsNode = failed[--failedCount];
+                if (type(token) == TokenType.END) {
+                    expect(TokenType.END, functionsNode);
+                } else {
+                    diagnostics.report(syntaxError(token, "Syntax Error Found: Expected " + TokenType.END + " but found " + type(token)));
+                }
+                parentNode = functionsNode;
+                continue;
+            }
+            if (type(token) == TokenType.END) {
+                return;
+            }
+            if (type(token) != TokenType.NUM && type(token) != TokenType.VOID) {
+                throw syntaxError(token, "Syntax Error Found: Expected function type but found " + tokens.describe(token));
+            }
+            int functionsNode = ast.addNode(nodeIdCounter++, NodeKind.FUNCTIONS, parentNode, true);
 
             //symbolTableStack.add(new HashMap<>()); // Push a new scope for the function
             symbolTable.enterScope();
-            parseDecl(functionsNode); // Parse a single function declaration
-            parseFunctions(functionsNode); // Recursively parse more functions (if any)
-        } else if (token == null) {
-            // System.out.println("End of input");
-        } else if (token.type != TokenType.NUM && token.type != TokenType.VOID) {
-            throw new Exception("Syntax Error Found: Expected function type but found " + token);
+            try {
+                parseDecl(functionsNode); // Parse a single function declaration
+            } catch (CompileError e) {
+                if (diagnostics == null) {
+                    throw e;
+                }
+                // Skip past the function's '}'; the rest of its body follows
+                diagnostics.report(e);
+                while (type(currentTokenIndex) != null && type(currentTokenIndex) != TokenType.EPILOG) {
+                    consume();
+                }
+                if (type(currentTokenIndex) == null) {
+                    return;
+                }
+                consume();
+                if (failedCount == failed.length) {
+                    failed = Arrays.copyOf(failed, failedCount * 2);
+                }
+                failed[failedCount++] = functionsNode;
+            }
+            parentNode = functionsNode; // more functions go under this one
+        }
+    }
+
+    // The top-level FUNCTIONS, in parallel when there is a pool. Any problem
+    // with the parallel parse (an error, a DECL that does not end where the
+    // pre-scan said, anything the tasks could not check on their own) makes
+    // it start over in order, so errors are the ones a sequential parse gives.
+    private void parseTopLevelFunctions(int parentNode) throws Exception {
+        if (pool != null && diagnostics == null) {
+            int start = currentTokenIndex;
+            int lastFunctionsNode = parseDeclsInParallel(parentNode);
+            if (lastFunctionsNode >= 0) {
+                // Whatever follows the DECLs, as the sequential loop would see it
+                parseFunctions(lastFunctionsNode);
+                return;
+            }
+            currentTokenIndex = start;
+        }
+        parseFunctions(parentNode);
+    }
+
+    // Parse the DECLs that follow one another from the current token, each on
+    // its own parser and arena, and add them as a sequential parse would have:
+    // the same nodes in the same arena order with the same unids, the function
+    // scopes pushed in source order and never popped, and the calls checked at
+    // the end. Returns the last FUNCTIONS node added, or -1 if nothing was
+    // added and the DECLs have to be parsed in order.
+    private int parseDeclsInParallel(int parentNode) {
+        List<int[]> units = SourceUnits.scan(tokens, currentTokenIndex, tokens.size());
+        int next = currentTokenIndex;
+        int count = 0;
+        while (count < units.size() && units.get(count)[0] == SourceUnits.DECL && units.get(count)[1] == next) {
+            next = units.get(count)[2] + 1;
+            count++;
+        }
+        if (count < 2) {
+            return -1;
+        }
+        List<DeclTask> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DeclTask task = new DeclTask(units.get(i)[1], units.get(i)[2]);
+            pool.execute(task);
+            tasks.add(task);
+        }
+        List<RecSPLParser> parsers = new ArrayList<>(count);
+        for (DeclTask task : tasks) {
+            RecSPLParser parser = task.join();
+            if (parser == null || parser.currentTokenIndex != task.lastToken + 1) {
+                return -1;
+            }
+            parsers.add(parser);
+        }
+        if (!canMerge(parsers)) {
+            return -1;
+        }
+
+        for (RecSPLParser parser : parsers) {
+            int functionsNode = ast.addNode(nodeIdCounter++, NodeKind.FUNCTIONS, parentNode, true);
+            ast.appendTree(parser.ast, parser.syntaxTree.root + 1, functionsNode, nodeIdCounter);
+            nodeIdCounter += parser.nodeIdCounter;
+            symbolTable.appendScopes(parser.symbolTable);
+            parser.functionTable.forEach(functionTable::put);
+            callSites.addAll(parser.callSites);
+            parentNode = functionsNode;
+        }
+        currentTokenIndex = next;
+        return parentNode;
+    }
+
+    // Whether the DECLs parsed on their own mean what they would have meant in
+    // order. A DECL declares functions, which must not clash with any declared
+    // before it. A sequential parse also never pops function scopes, and looks
+    // a variable up from the global scope inwards, so a local of an earlier
+    // DECL hides a local of a later one with the same name. Merging is refused
+    // when that would give a variable another type.
+    private boolean canMerge(List<RecSPLParser> parsers) {
+        FunctionTable declared = new FunctionTable(tokens.names());
+        IntMap<Type> localTypes = new IntMap<>();
+        for (RecSPLParser parser : parsers) {
+            boolean[] clash = new boolean[1];
+            parser.functionTable.forEach(signature -> {
+                if (functionTable.containsKey(signature.getNameId()) || declared.containsKey(signature.getNameId())) {
+                    clash[0] = true;
+                }
+                declared.put(signature);
+            });
+            if (clash[0]) {
+                return false;
+            }
+            IntMap<Type> ownTypes = new IntMap<>();
+            parser.symbolTable.forEachLocal((nameId, info) -> {
+                if (!symbolTable.isGlobal(nameId)) {
+                    Type earlier = localTypes.get(nameId);
+                    if (earlier != null && earlier != info.type) {
+                        clash[0] = true;
+                    }
+                    ownTypes.put(nameId, info.type);
+                }
+            });
+            if (clash[0]) {
+                return false;
+            }
+            ownTypes.forEach((nameId, type) -> {
+                if (!localTypes.containsKey(nameId)) {
+                    localTypes.put(nameId, type);
+                }
+            });
+        }
+        return true;
+    }
+
+    // Parses tokens [firstToken, lastToken] as one top-level DECL. Yields null
+    // if that fails; the sequential parse then reports the error.
+    private final class DeclTask extends RecursiveTask<RecSPLParser> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int firstToken;
+        private final int lastToken;
+
+        DeclTask(int firstToken, int lastToken) {
+            this.firstToken = firstToken;
+            this.lastToken = lastToken;
+        }
+
+        @Override
+        protected RecSPLParser compute() {
+            // Each task reads the globals from its own copy; only this thread
+            // touches the copy
+            RecSPLParser parser = new RecSPLParser(tokens, symbolTable.globalScopeCopy(), firstToken, lastToken);
+            try {
+                parser.symbolTable.enterScope();
+                parser.parseDecl(parser.syntaxTree.root);
+                return parser;
+            } catch (Exception | StackOverflowError | AssertionError e) {
+                return null;
+            }
+        }
+    }
+
+    // Parse one top-level unit (SourceUnits.ALGO or DECL) starting at the given
+    // token. The new node is returned but left out of parentNode's children;
+    // the caller puts it in place of the node it replaces.
+    int parseUnit(int kind, int tokenIndex, int parentNode) throws Exception {
+        currentTokenIndex = tokenIndex;
+        if (kind == SourceUnits.DECL) {
+            symbolTable.enterScope();
+            parseDecl(parentNode);
+            symbolTable.exitScope();
+        } else {
+            parseAlgo(parentNode);
         }
+        resolveCalls();
+        return ast.removeLastChild(parentNode);
     }
 
     // <DECL> ::= HEADER BODY
-    private void parseDecl(Node parentNode) throws Exception {
-        Node declNode = new Node(nodeIdCounter++, "DECL", parentNode);
-        syntaxTree.addInnerNode(declNode);
-        parentNode.addChild(declNode);
+    private void parseDecl(int parentNode) throws Exception {
+        int declNode = ast.addNode(nodeIdCounter++, NodeKind.DECL, parentNode, true);
 
         parseHeader(declNode);
         parseBody(declNode);
     }
 
 // <HEADER> ::= FTYP FNAME( VNAME , VNAME , VNAME )
-    private void parseHeader(Node parentNode) throws Exception {
-        Node headerNode = new Node(nodeIdCounter++, "HEADER", parentNode);
-        syntaxTree.addInnerNode(headerNode);
-        parentNode.addChild(headerNode);
+    private void parseHeader(int parentNode) throws Exception {
+        int headerNode = ast.addNode(nodeIdCounter++, NodeKind.HEADER, parentNode, true);
 
-        String returnType = parseFType(headerNode); // Parse function return type
-        Token funcToken = getCurrentToken();
+        Type returnType = parseFType(headerNode); // Parse function return type
+        int funcToken = currentTokenIndex;
         expect(TokenType.FNAME, headerNode); // Parse function name
-        String functionName = funcToken.data;
+        String functionName = tokens.text(funcToken);
 
         expect(TokenType.LPAREN, headerNode); // Parse '('
-        List<String> parameterTypes = parseParams(headerNode); // Parse parameters
+        Type[] parameterTypes = Type.numbers(parseParams(headerNode)); // Parse parameters
         expect(TokenType.RPAREN, headerNode); // Parse ')'
 
         // Add function signature to the function table
@@ -676,48 +1031,37 @@ public class RecSPLParser {
             // System.out.println(funcToken.data);
             // System.out.println(functionTable.get(funcToken.data));
         }
-        if (searchForFunctionName(funcToken.data)) {
-            throw new Exception("Scoping error: Function " + functionName + " is already declared.");
+        int functionId = tokens.symbol(funcToken);
+        if (functionTable.containsKey(functionId)) {
+            semanticError(Diagnostics.Kind.SCOPE, funcToken, "Scoping error: Function " + functionName + " is already declared.");
         } else {
-            functionTable.put(functionName, new FunctionSignature(functionName, returnType, parameterTypes));
-        }
-    }
-
-    private boolean searchForFunctionName(String functionName) {
-        for (int i = 0; i < functionTable.size(); i++) {
-            if (functionTable.get(functionName) != null) {
-                // System.out.println(functionTable);
-                return true;
-            }
+            functionTable.put(new FunctionSignature(functionId, functionName, returnType, parameterTypes));
         }
-        return false;
     }
 
-    private List<String> parseParams(Node parentNode) throws Exception {
-        List<String> parameterTypes = new ArrayList<>();
-        Token token = getCurrentToken();
-        if (token.type == TokenType.VNAME) {
-            Node paramsNode = new Node(nodeIdCounter++, "VNAME", parentNode);
-            syntaxTree.addInnerNode(paramsNode);
-            parentNode.addChild(paramsNode);
+    // Number of parameters; each is a num
+    private int parseParams(int parentNode) throws Exception {
+        int parameters = 0;
+        while (type(currentTokenIndex) == TokenType.VNAME) {
+            int token = currentTokenIndex;
+            int paramsNode = ast.addNode(nodeIdCounter++, NodeKind.VNAME, parentNode, true);
 
-            String paramType = "num"; // Parse parameter type
-            parameterTypes.add(paramType);
-            symbolTable.symbolTableStack.peek().put(token.data, new SymbolInfo(paramType, null, token.data));
+            Type paramType = Type.NUM; // Parse parameter type
+            parameters++;
+            symbolTable.addSymbol(tokens.symbol(token), paramType, null);
             expect(TokenType.VNAME, paramsNode); // Parse parameter name
-            if (getCurrentToken().type == TokenType.COMMA) {
-                consume(); // consume ','
-                parameterTypes.addAll(parseParams(paramsNode)); // Recursively parse more parameters
+            if (type(currentTokenIndex) != TokenType.COMMA) {
+                break;
             }
+            consume(); // consume ','
+            parentNode = paramsNode; // more parameters go under this one
         }
-        return parameterTypes;
+        return parameters;
     }
 
 // <BODY> ::= PROLOG LOCVARS ALGO EPILOG SUBFUNCS end
-    private void parseBody(Node parentNode) throws Exception {
-        Node bodyNode = new Node(nodeIdCounter++, "BODY", parentNode);
-        syntaxTree.addInnerNode(bodyNode);
-        parentNode.addChild(bodyNode);
+    private void parseBody(int parentNode) throws Exception {
+        int bodyNode = ast.addNode(nodeIdCounter++, NodeKind.BODY, parentNode, true);
 
         expect(TokenType.PROLOG, bodyNode); // Parse 'PROLOG'
         parseLocVars(bodyNode); // Parse local variables
@@ -730,48 +1074,43 @@ public class RecSPLParser {
     }
 
 // <LOCVARS> ::= VTYP VNAME , VTYP VNAME , VTYP VNAME ,
-    private void parseLocVars(Node parentNode) throws Exception {
-        Token token = getCurrentToken();
-        if (token.type == TokenType.NUM || token.type == TokenType.TEXT) {
-
-            Node locVarsNode = new Node(nodeIdCounter++, "LOCVARS", parentNode);
-            syntaxTree.addInnerNode(locVarsNode);
-            parentNode.addChild(locVarsNode);
+    private void parseLocVars(int parentNode) throws Exception {
+        while (type(currentTokenIndex) == TokenType.NUM || type(currentTokenIndex) == TokenType.TEXT) {
+            int locVarsNode = ast.addNode(nodeIdCounter++, NodeKind.LOCVARS, parentNode, true);
 
-            String varType = parseVType(locVarsNode);
-            Token varToken = getCurrentToken();
+            Type varType = parseVType(locVarsNode);
+            int varToken = currentTokenIndex;
             expect(TokenType.VNAME, locVarsNode);  // match variable name
 
-            Map<String, SymbolInfo> LocalScope = symbolTable.symbolTableStack.peek();
-            if (LocalScope.containsKey(varToken.data)) {
-                throw new Exception("Variable " + varToken.data + " already declared globally.");
+            int varName = tokens.symbol(varToken);
+            if (symbolTable.isDeclaredInCurrentScope(varName)) {
+                semanticError(Diagnostics.Kind.SCOPE, varToken, "Variable " + tokens.text(varToken) + " already declared globally.");
             } else {
-                LocalScope.put(varToken.data, new SymbolInfo(varType, null, varToken.data));
+                symbolTable.addSymbol(varName, varType, null);
             }
 
-            if (getCurrentToken().type == TokenType.COMMA) {
-                consume();                 // consume the comma
-                parseLocVars(locVarsNode); // recursively parse more local variables
+            if (type(currentTokenIndex) != TokenType.COMMA) {
+                return;
             }
+            consume();                 // consume the comma
+            parentNode = locVarsNode;  // more local variables go under this one
         }
     }
 
     // <VTYP> ::= num | text
-    private String parseFType(Node parentNode) throws Exception {
-        Node fTypeNode = new Node(nodeIdCounter++, "FTYP", parentNode);
-        syntaxTree.addInnerNode(fTypeNode);
-        parentNode.addChild(fTypeNode);
-
-        Token token = getCurrentToken();
-        if (token.type == TokenType.NUM || token.type == TokenType.VOID) {
-            expect(token.type, fTypeNode); // match num or void
+    private Type parseFType(int parentNode) throws Exception {
+        int fTypeNode = ast.addNode(nodeIdCounter++, NodeKind.FTYP, parentNode, true);
+
+        int token = currentTokenIndex;
+        if (type(token) == TokenType.NUM || type(token) == TokenType.VOID) {
+            expect(type(token), fTypeNode); // match num or void
         } else {
-            throw new Exception("Syntax Error Found: Expected function type (num or void) but found " + token);
+            throw syntaxError(token, "Syntax Error Found: Expected function type (num or void) but found " + tokens.describe(token));
         }
-        return token.data;
+        return tokens.valueType(token);
     }
 
-    // private String parseFType(Node parentNode) throws Exception {
+    // private String parseFType(int parentNode) throws Exception {
     //     Node fTypeNode = new Node(nodeIdCounter++, "VTYPE");
     //     syntaxTree.addInnerNode(fTypeNode);
     //     parentNode.addChild(fTypeNode);
@@ -797,31 +1136,29 @@ public class RecSPLParser {
     //         }
     //     }
     // }
-    private String parseVType(Node parentNode) throws Exception {
-        Node vTypeNode = new Node(nodeIdCounter++, "VTYPE", parentNode);
-        syntaxTree.addInnerNode(vTypeNode);
-        parentNode.addChild(vTypeNode);
+    private Type parseVType(int parentNode) throws Exception {
+        int vTypeNode = ast.addNode(nodeIdCounter++, NodeKind.VTYPE, parentNode, true);
 
-        Token currentToken = getCurrentToken();
+        int currentToken = currentTokenIndex;
 
-        if (null == currentToken.type) {
+        if (null == type(currentToken)) {
             // If it's not a valid type, throw an error
-            throw new Exception("Syntax Error Found: Expected a type, but found: " + currentToken.data);
+            throw syntaxError(currentToken, "Syntax Error Found: Expected a type, but found: " + tokens.text(currentToken));
         } else // Check the token for a valid type
         {
-            switch (currentToken.type) {
+            switch (type(currentToken)) {
                 case NUM:
                     // Add the type token  to the syntax tree
                     expect(TokenType.NUM, vTypeNode);
-                    return currentToken.data;  // Return the type as a string
+                    return Type.NUM;
                 case TEXT:
                     // Add the type token to the syntax tree
                     expect(TokenType.TEXT, vTypeNode);
-                    return currentToken.data;  // Return the type as a string
+                    return Type.TEXT;
                 case VOID:
                 default:
                     // If it's not a valid type, throw an error
-                    throw new Exception("Syntax Error Found: Expected a type, but found: " + currentToken.data);
+                    throw syntaxError(currentToken, "Syntax Error Found: Expected a type, but found: " + tokens.text(currentToken));
             }
         }
     }
@@ -832,35 +1169,25 @@ public class RecSPLParser {
         String xmlOutputFile = "tokens_output.xml";
         String xmlOutputFileSyntaxTree = "syntax_tree.xml";
         try {
-            // Step 1: Read input file
-            String input = new String(Files.readAllBytes(Paths.get(inputFile)));
-            System.out.println("Input file contents:\n" + input);
+            // Step 1: Read input file. It is scanned straight out of the
+            // mapping and not echoed, since that would decode the whole file
+            MappedSource input = MappedSource.open(Paths.get(inputFile));
 
             // Step 2: Lexing process - generate tokens
-            List<Token> tokens = RecSPLLexer.lex(input);
+            TokenBuffer tokens = TokenBuffer.lex(input);
             // for (int i = 0; i < tokens.size(); i++) {
             //     System.out.println(tokens.get(i));
             // }
             System.out.println("Lexing completed successfully. No errors found.");
             // Step 3: Parsing process        
-            Node rootNode = new Node(0, "ROOT", null);
-            RecSPLParser parser = new RecSPLParser(tokens, rootNode); // Pass tokens to the parser
+            RecSPLParser parser = new RecSPLParser(tokens); // Pass tokens to the parser
 
-            parser.parseProgram(); // Start parsing the 
+            parser.parseProgram(); // Start parsing the program; calls are checked at the end
             System.out.println("Parsing completed successfully. No syntax errors found.");
             // parser.functionTable.forEach((key, value) -> {
             //     System.out.println(key + " : " + value);
             //     System.out.println(value.getParamTypes());
             // });
-            // Step 4: Semantic Analysis of functions
-            Node functionNode = new Node(0, "ROOT", null);
-            RecSPLParser parserFunction = new RecSPLParser(parser, functionNode);
-            parserFunction.darkart = "notdarkart";
-            parserFunction.parseProgram();
-            // parserFunction.functionTable.forEach((key, value) -> {
-            //     System.out.println(key + " : " + value);
-            //     System.out.println(value.getParamTypes());
-            // });
             System.out.println("Semantic Analysis completed successfully. No syntax errors found.");
             // Output the syntax tree
             RecSPLLexer.writeTokensToXML(tokens, xmlOutputFile);
@@ -870,8 +1197,8 @@ public class RecSPLParser {
             // Step 5: Typechecking 
             System.out.println("Type checking start");
    
-            RecSPLTypeChecker typeChecker = new RecSPLTypeChecker(parser.symbolTable);
-            boolean isTypeChecked = typeChecker.check(tokens);
+            RecSPLTypeChecker typeChecker = new RecSPLTypeChecker(parser.functionTable);
+            boolean isTypeChecked = typeChecker.check(parser.syntaxTree);
         
             if (isTypeChecked) {
                 System.out.println("Type checking passed. Proceeding to the next stage.");
@@ -879,7 +1206,7 @@ public class RecSPLParser {
                 System.out.println("Type checking failed. Please fix the errors.");
             }
             // Step 6: Code Generation
-            CodeGenerator codeGenerator = new CodeGenerator(tokens, parserFunction.symbolTable, parserFunction.functionTable);
+            CodeGenerator codeGenerator = new CodeGenerator(tokens, parser.symbolTable, parser.functionTable, VariableSlots.resolve(parser.syntaxTree));
             String code = codeGenerator.translate();
             codeGenerator.writeFormattedCodeToFile(code);
             ConvertToBasic converter = new ConvertToBasic();
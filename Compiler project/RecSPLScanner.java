@@ -0,0 +1,228 @@
+// Hand-coded DFA scanner for RecSPL.
+//
+// Recognises exactly the same token stream as the regex alternation in
+// RecSPLLexer.lex: at every position the alternatives are tried in TokenType
+// declaration order (first match wins, no longest-match rule), and characters
+// that start no token are skipped one at a time, just like Matcher.find().
+// Since every keyword starts with a lowercase letter and no keyword is a prefix
+// of another keyword with the same first letter, one switch on the first
+// character decides which literal (if any) can match.
+
+public final class RecSPLScanner {
+
+    // Receives one call per non-whitespace token; start/end are source offsets
+    public interface TokenSink {
+        void accept(TokenType type, int start, int end);
+    }
+
+    private RecSPLScanner() {
+    }
+
+    public static void scan(CharSequence input, TokenSink sink) {
+        scan(input, 0, input.length(), sink);
+    }
+
+    // Scan input[from, to) and report every token to the sink
+    public static void scan(CharSequence input, int from, int to, TokenSink sink) {
+        int pos = from;
+        while (pos < to) {
+            char c = input.charAt(pos);
+            int end;
+            TokenType type;
+            switch (c) {
+                case ' ', '\t', '\f', '\r', '\n' -> {
+                    pos++;
+                    while (pos < to && isWhitespace(input.charAt(pos))) {
+                        pos++;
+                    }
+                    continue;
+                }
+                case ';' -> { type = TokenType.SEMICOLON; end = pos + 1; }
+                case '=' -> { type = TokenType.EQUALS; end = pos + 1; }
+                case ',' -> { type = TokenType.COMMA; end = pos + 1; }
+                case '(' -> { type = TokenType.LPAREN; end = pos + 1; }
+                case ')' -> { type = TokenType.RPAREN; end = pos + 1; }
+                case '{' -> { type = TokenType.PROLOG; end = pos + 1; }
+                case '}' -> { type = TokenType.EPILOG; end = pos + 1; }
+                case '<' -> {
+                    type = TokenType.INPUT;
+                    end = literal(input, pos, to, "< input");
+                }
+                case 'V', 'F' -> {
+                    type = c == 'V' ? TokenType.VNAME : TokenType.FNAME;
+                    end = name(input, pos, to);
+                }
+                case '"' -> {
+                    type = TokenType.CONST;
+                    end = textConst(input, pos, to);
+                }
+                case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+                    type = TokenType.CONST2;
+                    end = pos + 1;
+                    while (end < to && isDigit(input.charAt(end))) {
+                        end++;
+                    }
+                }
+                default -> {
+                    type = null;
+                    end = -1;
+                    if (c >= 'a' && c <= 'z') {
+                        // Keywords, BINOP and UNOP words; the token type is
+                        // filled in by word() through the KEYWORD_TYPE table
+                        int word = word(input, pos, to, c);
+                        if (word >= 0) {
+                            type = KEYWORD_TYPE[word];
+                            end = pos + KEYWORD_TEXT[word].length();
+                        }
+                    }
+                }
+            }
+            if (end < 0) {
+                pos++; // Not the start of any token: skip it, as find() does
+                continue;
+            }
+            sink.accept(type, pos, end);
+            pos = end;
+        }
+    }
+
+    // Text of a token, reusing the shared keyword string whenever the token's
+    // spelling is fixed so that only names and literals are copied
+    public static String text(CharSequence input, TokenType type, int start, int end) {
+        String fixed = fixedText(type);
+        if (fixed != null) {
+            return fixed;
+        }
+        if (type == TokenType.BINOP || type == TokenType.UNOP) {
+            int word = word(input, start, end, input.charAt(start));
+            if (word >= 0) {
+                return KEYWORD_TEXT[word];
+            }
+        }
+        return input.subSequence(start, end).toString();
+    }
+
+    // Spelling of tokens that can only ever be written one way, or null
+    public static String fixedText(TokenType type) {
+        return FIXED_TEXT[type.ordinal()];
+    }
+
+    // Keyword table, in TokenType declaration order within each first letter
+    private static final String[] KEYWORD_TEXT = {
+        "main", "begin", "end", "skip", "halt", "print", "if", "then", "else", "return",
+        "eq", "grt", "add", "sub", "mul", "div", "or", "and",
+        "not", "sqrt",
+        "text", "num", "void"
+    };
+
+    private static final TokenType[] KEYWORD_TYPE = {
+        TokenType.MAIN, TokenType.BEGIN, TokenType.END, TokenType.SKIP, TokenType.HALT,
+        TokenType.PRINT, TokenType.IF, TokenType.THEN, TokenType.ELSE, TokenType.RETURN,
+        TokenType.BINOP, TokenType.BINOP, TokenType.BINOP, TokenType.BINOP,
+        TokenType.BINOP, TokenType.BINOP, TokenType.BINOP, TokenType.BINOP,
+        TokenType.UNOP, TokenType.UNOP,
+        TokenType.TEXT, TokenType.NUM, TokenType.VOID
+    };
+
+    // Candidate keywords for each first letter, as indexes into KEYWORD_TEXT
+    private static final int[][] KEYWORDS_BY_LETTER = new int[26][];
+
+    private static final String[] FIXED_TEXT = new String[TokenType.values().length];
+
+    static {
+        for (int letter = 0; letter < 26; letter++) {
+            int count = 0;
+            for (String keyword : KEYWORD_TEXT) {
+                if (keyword.charAt(0) == 'a' + letter) {
+                    count++;
+                }
+            }
+            int[] candidates = new int[count];
+            count = 0;
+            for (int i = 0; i < KEYWORD_TEXT.length; i++) {
+                if (KEYWORD_TEXT[i].charAt(0) == 'a' + letter) {
+                    candidates[count++] = i;
+                }
+            }
+            KEYWORDS_BY_LETTER[letter] = candidates;
+        }
+        for (int i = 0; i < KEYWORD_TEXT.length; i++) {
+            if (KEYWORD_TYPE[i] != TokenType.BINOP && KEYWORD_TYPE[i] != TokenType.UNOP) {
+                FIXED_TEXT[KEYWORD_TYPE[i].ordinal()] = KEYWORD_TEXT[i];
+            }
+        }
+        FIXED_TEXT[TokenType.INPUT.ordinal()] = "< input";
+        FIXED_TEXT[TokenType.SEMICOLON.ordinal()] = ";";
+        FIXED_TEXT[TokenType.EQUALS.ordinal()] = "=";
+        FIXED_TEXT[TokenType.COMMA.ordinal()] = ",";
+        FIXED_TEXT[TokenType.LPAREN.ordinal()] = "(";
+        FIXED_TEXT[TokenType.RPAREN.ordinal()] = ")";
+        FIXED_TEXT[TokenType.PROLOG.ordinal()] = "{";
+        FIXED_TEXT[TokenType.EPILOG.ordinal()] = "}";
+    }
+
+    // Index of the keyword starting at pos, or -1
+    private static int word(CharSequence input, int pos, int to, char first) {
+        for (int candidate : KEYWORDS_BY_LETTER[first - 'a']) {
+            if (literal(input, pos, to, KEYWORD_TEXT[candidate]) >= 0) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    // End of the literal if it occurs at pos, or -1
+    private static int literal(CharSequence input, int pos, int to, String literal) {
+        int length = literal.length();
+        if (to - pos < length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (input.charAt(pos + i) != literal.charAt(i)) {
+                return -1;
+            }
+        }
+        return pos + length;
+    }
+
+    // [VF]_[a-z]([a-z]|[0-9])*
+    private static int name(CharSequence input, int pos, int to) {
+        if (pos + 2 >= to || input.charAt(pos + 1) != '_' || !isLower(input.charAt(pos + 2))) {
+            return -1;
+        }
+        int end = pos + 3;
+        while (end < to && (isLower(input.charAt(end)) || isDigit(input.charAt(end)))) {
+            end++;
+        }
+        return end;
+    }
+
+    // "[A-Z][a-z]{0,7}"
+    private static int textConst(CharSequence input, int pos, int to) {
+        int end = pos + 1;
+        if (end >= to || input.charAt(end) < 'A' || input.charAt(end) > 'Z') {
+            return -1;
+        }
+        end++;
+        int limit = Math.min(to, end + 7);
+        while (end < limit && isLower(input.charAt(end))) {
+            end++;
+        }
+        if (end < to && input.charAt(end) == '"') {
+            return end + 1;
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f' || c == '\r' || c == '\n';
+    }
+
+    private static boolean isLower(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
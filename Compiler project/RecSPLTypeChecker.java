@@ -1,216 +1,558 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Type checker over the parse tree (the parser's, not the compacted AST).
+//
+// One TreeWalker pass: declarations are entered into a scoped symbol table on
+// the way down, and every TERM, UNOP, BINOP, CALL and condition (SIMPLE or
+// COMPOSITE; the COND node itself is detached) gets its type on the way up,
+// from the types of its children. Variable and constant leaves are typed when
+// they are reached. The types stay on the tree as Ast.valueType, where the
+// checker reads the types of a node's children and keeps those of the units it
+// reuses (see below). The code generator works from the tokens and does not
+// read them.
+//
+// Scopes are lexical: a DECL sees the globals, the scopes of the DECLs it is
+// nested in, and its own parameters and locals. Whether names are declared and
+// calls fit their signatures is checked, and reported, by the parser only. A
+// parse never pops function scopes, so it also lets a DECL use the locals of
+// the DECLs before it; the checker does not see those. A leaf it cannot find
+// gets no type, as does any node above it, and nothing is reported for them.
+//
+// With a pool (see checkInParallel) the main ALGO and the top-level DECLs are
+// checked on it, one task per unit, once the globals are done. Each task has
+// its own symbol table over the global one, which no task changes, and keeps
+// its own errors; they are reported in source order, as a sequential check
+// would.
+//
+// A checker told to reuseUnchangedUnits keeps what it found for each top-level
+// unit (the main ALGO or a top-level DECL) between checks, together with the
+// types of the globals and the return types of the functions the unit looked
+// up. On the next check a unit is walked again only if it is a new node (the
+// IncrementalFrontEnd re-parses an edited unit into new nodes) or one of those
+// types has changed; any other unit keeps its errors and its node types.
+
 public class RecSPLTypeChecker {
-    private SymbolTable symbolTable;
+
+    private final FunctionTable functionTable;
     private final List<String> errors;
+    // Also gets every error, with its token, when not null
+    private final Diagnostics diagnostics;
+    // Pool to check the top-level units on, or null to check them in order
+    private ForkJoinPool pool;
+    // Verdicts of the units of the last check by unit node unid, or null if
+    // they are not kept
+    private IntMap<UnitCheck> units;
+    // Top-level units the last check walked on their own
+    private int unitsWalked;
+
+    private Ast ast;
+    private TokenBuffer tokens;
 
-    public RecSPLTypeChecker(SymbolTable symbolTableA) {
-        this.symbolTable = symbolTableA;
+    public RecSPLTypeChecker(FunctionTable functionTable) {
+        this(functionTable, null);
+    }
+
+    public RecSPLTypeChecker(FunctionTable functionTable, Diagnostics diagnostics) {
+        this.functionTable = functionTable;
         this.errors = new ArrayList<>();
+        this.diagnostics = diagnostics;
     }
 
-    public boolean check(List<Token> tokens) {
-        for (Token token : tokens) {
-            switch (token.type) {
-                case MAIN:
-                    checkMainFunction(tokens);
-                    break;
-                case BEGIN:
-                    symbolTable.enterScope();
-                    break;
-                case END:
-                    symbolTable.exitScope();
-                    break;
-                case VNAME:
-                    checkVariableReference(token);
-                    break;
-                case CONST:
-                    break;
-                case EQUALS:
-                    handleAssignment(tokens);
-                    break;
-                case BINOP:
-                    checkBinaryOperation(tokens, token);
-                    break;
-                case UNOP:
-                    checkUnaryOperation(tokens, token);
-                    break;
-                case IF:
-                case THEN:
-                case ELSE:
-                    checkCondition(tokens);
-                    break;
-                
-                case PRINT:
-                    checkPrintStatement(tokens);
-                    break;
-                case SKIP:
-                case HALT:
-                    break;
-                default:
-                    break;
-            }
+    // Check the main ALGO and the top-level DECLs on pool, one task each
+    public void checkInParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Keep each top-level unit's verdict for the next check of the same tree
+    public void reuseUnchangedUnits() {
+        if (units == null) {
+            units = new IntMap<>();
         }
+    }
 
-        return reportErrors();
+    // Top-level units the last check walked on their own, when it kept
+    // verdicts or checked in parallel; with reuseUnchangedUnits the rest kept
+    // what the check before found
+    public int unitsWalked() {
+        return unitsWalked;
+    }
+
+    public boolean check(SyntaxTree syntaxTree) throws Exception {
+        return check(syntaxTree, diagnostics);
     }
 
-    private void checkMainFunction(List<Token> tokens) {
-        boolean foundMain = false;
-    
-        for (int i = 0; i < tokens.size(); i++) {
-            Token token = tokens.get(i);
-    
-           
-            if (token.type == TokenType.MAIN) {
-                foundMain = true;
+    // Check, giving every error with its token to diagnostics, when not null,
+    // in place of the Diagnostics the checker was made with
+    public boolean check(SyntaxTree syntaxTree, Diagnostics diagnostics) throws Exception {
+        this.ast = syntaxTree.ast;
+        this.tokens = ast.tokens();
+        errors.clear();
+        if (units == null) {
+            ast.clearValueTypes();
+        } else {
+            ast.reserveValueTypes();
+        }
+        Checker main = new Checker(new SymbolTable(tokens.names()), null, pool != null || units != null);
+        TreeWalker.walk(ast, syntaxTree.root, main);
+        report(main.found, diagnostics);
+        // The main walk has left only the global scope, which is read from now
+        // on
+        SymbolTable globals = main.symbolTable;
+        List<UnitCheck> verdicts = new ArrayList<>(main.deferredCount);
+        List<UnitCheck> stale = new ArrayList<>();
+        IntMap<UnitCheck> kept = units == null ? null : new IntMap<>(main.deferredCount);
+        for (int i = 0; i < main.deferredCount; i++) {
+            int unit = main.deferred[i];
+            UnitCheck verdict = units == null ? null : units.get(ast.unid(unit));
+            if (verdict != null) {
+                // The arena may have been compacted since
+                verdict.node = unit;
+            }
+            if (verdict == null || !verdict.holds(globals)) {
+                verdict = new UnitCheck(unit);
+                stale.add(verdict);
+            }
+            verdicts.add(verdict);
+            if (kept != null) {
+                kept.put(ast.unid(unit), verdict);
             }
         }
-    
-        // If main function was not found
-        if (!foundMain) {
-            errors.add("Error: 'main' function is not declared.");
+        if (stale.size() == 1 || pool == null) {
+            for (UnitCheck verdict : stale) {
+                verdict.take(checkUnit(globals, verdict.node));
+            }
+        } else {
+            List<UnitTask> tasks = new ArrayList<>(stale.size());
+            for (UnitCheck verdict : stale) {
+                UnitTask task = new UnitTask(globals, verdict.node);
+                pool.execute(task);
+                tasks.add(task);
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                stale.get(i).take(tasks.get(i).join());
+            }
         }
+        for (UnitCheck verdict : verdicts) {
+            report(verdict.found(), diagnostics);
+        }
+        units = kept;
+        unitsWalked = stale.size();
+        return reportErrors();
     }
-    
 
-    private void checkVariableReference(Token token) {
-        if (!symbolTable.containsSymbol(token.data)) {
-            errors.add("Error: Variable '" + token.data + "' is not declared.");
-        }
+    // The walk of a top-level unit, with a table of its own over globals
+    private Checker checkUnit(SymbolTable globals, int unit) throws Exception {
+        Checker checker = new Checker(globals.newLayer(), units == null ? null : globals, false);
+        TreeWalker.walk(ast, unit, checker);
+        return checker;
     }
 
-    private void handleAssignment(List<Token> tokens) {
-        int index = tokens.indexOf(new Token(TokenType.EQUALS, "=", -1));
-        if (index > 0) {
-            Token variable = tokens.get(index - 1);
-            if (!symbolTable.containsSymbol(variable.data)) {
-                errors.add("Error: Variable '" + variable.data + "' is not declared before assignment.");
+    private final class UnitTask extends RecursiveTask<Checker> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SymbolTable globals;
+        private final int unit;
+
+        UnitTask(SymbolTable globals, int unit) {
+            this.globals = globals;
+            this.unit = unit;
+        }
+
+        @Override
+        protected Checker compute() {
+            try {
+                return checkUnit(globals, unit);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
             }
-        
-            checkAssignmentValue(tokens, index);
         }
     }
 
-    private void checkAssignmentValue(List<Token> tokens, int index) {
-        if (index + 1 < tokens.size()) {
-            Token assignedValue = tokens.get(index + 1);
-    
-            if (assignedValue.type == TokenType.CONST) {
-                return; // Valid constant assignment
+    // What the walk of a unit found, and the name ids of the globals and
+    // functions it looked up with the types it saw for them
+    private final class UnitCheck {
+
+        int node;
+        private List<Diagnostics.Diagnostic> found;
+        // First token of the unit when found was last brought up to date;
+        // edits before the unit move its tokens
+        private int firstToken;
+        private int[] globalIds;
+        private Type[] globalTypes;
+        private int[] functionIds;
+        private Type[] returnTypes;
+
+        UnitCheck(int node) {
+            this.node = node;
+        }
+
+        void take(Checker checker) {
+            found = checker.found;
+            firstToken = firstToken(node);
+            if (checker.globalsRead != null) {
+                globalIds = new int[checker.globalsRead.size()];
+                globalTypes = new Type[globalIds.length];
+                entries(checker.globalsRead, globalIds, globalTypes);
+                functionIds = new int[checker.functionsRead.size()];
+                returnTypes = new Type[functionIds.length];
+                entries(checker.functionsRead, functionIds, returnTypes);
             }
-    
-            if (assignedValue.type == TokenType.VNAME) {
-                if (!symbolTable.containsSymbol(assignedValue.data)) {
-                    errors.add("Error: Assigned value must be a declared variable or constant.");
-                } else {
-                   
+        }
+
+        // Whether the unit would be found as it was: the globals and the
+        // functions it looked up still have the same types
+        boolean holds(SymbolTable globals) {
+            for (int i = 0; i < globalIds.length; i++) {
+                SymbolInfo variable = globals.lookup(globalIds[i]);
+                if ((variable == null ? null : variable.type) != globalTypes[i]) {
+                    return false;
                 }
-            } else {
-                errors.add("Error: Assigned value must be a constant or a declared variable.");
             }
-        } else {
-            errors.add("Error: Missing value for assignment.");
+            for (int i = 0; i < functionIds.length; i++) {
+                FunctionSignature signature = functionTable.get(functionIds[i]);
+                if ((signature == null ? null : signature.getReturnType()) != returnTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
-    }
-    
 
-    private void checkBinaryOperation(List<Token> tokens, Token token) {
-        // Implement type checking for binary operations
-        int index = tokens.indexOf(token);
-        if (index > 0 && index < tokens.size() - 1) {
-            Token leftOperand = tokens.get(index - 1);
-            Token rightOperand = tokens.get(index + 1);
-
-            if (!isValidOperand(leftOperand) || !isValidOperand(rightOperand)) {
-                errors.add("Error: Invalid types for binary operation '" + token.data + "'.");
+        List<Diagnostics.Diagnostic> found() {
+            if (found.isEmpty()) {
+                return found;
+            }
+            int shift = firstToken(node) - firstToken;
+            if (shift != 0) {
+                for (int i = 0; i < found.size(); i++) {
+                    Diagnostics.Diagnostic error = found.get(i);
+                    found.set(i, new Diagnostics.Diagnostic(error.kind, error.token + shift, error.message));
+                }
+                firstToken += shift;
             }
+            return found;
         }
     }
 
-    private void checkUnaryOperation(List<Token> tokens, Token token) {
-        // Implement type checking for unary operations
-        int index = tokens.indexOf(token);
-        if (index + 1 < tokens.size()) {
-            Token operand = tokens.get(index + 1);
-            if (!isValidOperand(operand)) {
-                errors.add("Error: Invalid type for unary operation '" + token.data + "'.");
-            }
+    // One walk and what it has found. Helpers that only read the tree are
+    // the outer class's; everything a walk changes is here.
+    private final class Checker implements TreeWalker.Visitor {
+
+        private final SymbolTable symbolTable;
+        // Signatures of the DECLs the walk is in, innermost last
+        private FunctionSignature[] functions = new FunctionSignature[8];
+        private int functionDepth;
+        // Errors, in the order found
+        private final List<Diagnostics.Diagnostic> found = new ArrayList<>();
+        // Whether the top-level units are left for later, and the ones that
+        // were
+        private final boolean deferUnits;
+        private int[] deferred = new int[8];
+        private int deferredCount;
+        // When not null, the types seen for each global and function looked
+        // up, by name id; null for one that was not declared
+        private final SymbolTable globals;
+        private final IntMap<Type> globalsRead;
+        private final IntMap<Type> functionsRead;
+
+        Checker(SymbolTable symbolTable, SymbolTable globals, boolean deferUnits) {
+            this.symbolTable = symbolTable;
+            this.globals = globals;
+            this.deferUnits = deferUnits;
+            this.globalsRead = globals == null ? null : new IntMap<>();
+            this.functionsRead = globals == null ? null : new IntMap<>();
         }
-    }
 
-    private boolean isValidOperand(Token operand) {
-        // Determine if the operand is a valid type (e.g., number, variable, constant)
-        return operand.type == TokenType.CONST || 
-               (operand.type == TokenType.VNAME && symbolTable.containsSymbol(operand.data));
-    }
+        @Override
+        public boolean enter(int node) {
+            switch (ast.kind(node)) {
+                case GLOBVARS, LOCVARS -> {
+                    // VTYPE VNAME [more declarations]
+                    int vtype = ast.firstChild(node);
+                    int name = ast.nextSibling(vtype);
+                    symbolTable.addSymbol(tokens.symbol(ast.token(name)), tokens.valueType(ast.token(ast.firstChild(vtype))), null);
+                }
+                case VNAME ->
+                    // A parameter
+                    symbolTable.addSymbol(tokens.symbol(ast.token(ast.firstChild(node))), Type.NUM, null);
+                case DECL -> {
+                    if (deferUnits && functionDepth == 0) {
+                        defer(node);
+                        return false;
+                    }
+                    symbolTable.enterScope();
+                }
+                case ALGO -> {
+                    // Only the main ALGO is outside every DECL
+                    if (deferUnits && functionDepth == 0) {
+                        defer(node);
+                        return false;
+                    }
+                }
+                case LEAF ->
+                    typeLeaf(node);
+                default -> {
+                }
+            }
+            return true;
+        }
 
-    private void checkCondition(List<Token> tokens) {
-        int ifIndex = tokens.indexOf(new Token(TokenType.IF, "if", 0));
-        if (ifIndex != -1) {
-            int conditionEndIndex = ifIndex + 1;
-    
-            while (conditionEndIndex < tokens.size() && tokens.get(conditionEndIndex).type != TokenType.THEN) {
-                conditionEndIndex++;
+        @Override
+        public void leave(int node) {
+            switch (ast.kind(node)) {
+                case TERM ->
+                    leaveTerm(node);
+                case UNOP ->
+                    ast.setValueType(node, unaryType(ast.firstChild(node), operand(ast.firstChild(node))));
+                case BINOP -> {
+                    int left = operand(ast.firstChild(node));
+                    int right = operand(left);
+                    ast.setValueType(node, binaryType(ast.token(ast.firstChild(node)), ast.valueType(left), ast.valueType(right)));
+                }
+                case CALL -> {
+                    FunctionSignature signature = function(tokens.symbol(ast.token(ast.firstChild(node))));
+                    ast.setValueType(node, signature == null ? null : signature.getReturnType());
+                }
+                case SIMPLE ->
+                    leaveSimple(node);
+                case COMPOSITE ->
+                    leaveComposite(node);
+                case ASSIGN ->
+                    leaveAssign(node);
+                case COMMAND ->
+                    leaveCommand(node);
+                case BRANCH -> {
+                    // if SIMPLE/COMPOSITE then ALGO else ALGO
+                    int ifLeaf = ast.firstChild(node);
+                    Type condition = ast.valueType(ast.nextSibling(ifLeaf));
+                    if (condition != null && condition != Type.BOOL) {
+                        error(ast.token(ifLeaf), "Condition in IF statement must evaluate to a boolean type.");
+                    }
+                }
+                case HEADER -> {
+                    // FTYP FNAME ( ... )
+                    if (functionDepth == functions.length) {
+                        functions = Arrays.copyOf(functions, functionDepth * 2);
+                    }
+                    functions[functionDepth++] = function(tokens.symbol(ast.token(ast.nextSibling(ast.firstChild(node)))));
+                }
+                case DECL -> {
+                    // A deferred DECL was not entered
+                    if (deferredCount > 0 && deferred[deferredCount - 1] == node) {
+                        return;
+                    }
+                    functionDepth--;
+                    symbolTable.exitScope();
+                }
+                default -> {
+                }
             }
-    
-            if (conditionEndIndex < tokens.size()) {
-                Token conditionToken = tokens.get(conditionEndIndex - 1);
-                if (conditionToken.type == TokenType.BINOP) {
-                    // Logic to check the left and right operands of the binary operation
-                    Token leftOperand = tokens.get(conditionEndIndex - 2); // Left operand
-                    Token rightOperand = tokens.get(conditionEndIndex); // Right operand
-    
-                    if (!isBooleanExpression(leftOperand) || !isBooleanExpression(rightOperand)) {
-                        errors.add("Error: Condition in IF statement must evaluate to a boolean type.");
+        }
+
+        // Variables and constants used as values; declarations are left alone
+        private void typeLeaf(int leaf) {
+            int token = ast.token(leaf);
+            switch (tokens.type(token)) {
+                case VNAME -> {
+                    NodeKind parent = ast.kind(ast.parent(leaf));
+                    if (parent == NodeKind.GLOBVARS || parent == NodeKind.LOCVARS || parent == NodeKind.VNAME) {
+                        return;
+                    }
+                    int nameId = tokens.symbol(token);
+                    SymbolInfo variable = symbolTable.lookup(nameId);
+                    if (globalsRead != null && (variable == null || variable == globals.lookup(nameId))) {
+                        globalsRead.put(nameId, variable == null ? null : variable.type);
                     }
-                } else {
-                    errors.add("Error: Condition in IF statement must be a binary operation.");
+                    // The parser reports a name it does not know
+                    ast.setValueType(leaf, variable == null ? null : variable.type);
+                }
+                case CONST, CONST2 ->
+                    ast.setValueType(leaf, tokens.valueType(token));
+                default -> {
                 }
-            } else {
-                errors.add("Error: Missing THEN after IF condition.");
             }
         }
-    }
-    
-    private boolean isBooleanExpression(Token token) {
-       
-        return token.type == TokenType.BINOP && (token.data.equals("eq") || token.data.equals("grt"));
-    }
-    
 
-    private void checkFunctionCall(List<Token> tokens) {
-        for (int i = 0; i < tokens.size(); i++) {
-            if (tokens.get(i).type == TokenType.FNAME) {
-                String functionName = tokens.get(i).data;
-    
-                if (!symbolTable.containsSymbol(functionName)) {
-                    errors.add("Error: Function '" + functionName + "' is not declared.");
-                    continue;
+        private void leaveTerm(int term) {
+            int value = ast.firstChild(term);
+            Type type = ast.valueType(value);
+            if (type == Type.VOID) {
+                int call = ast.token(ast.firstChild(value));
+                error(call, "Function '" + tokens.text(call) + "' is void and has no value.");
+                type = null;
+            }
+            ast.setValueType(term, type);
+        }
+
+        // ATOMIC , ATOMIC ), after the "op (" that the COND or COMPOSITE
+        // before it holds
+        private void leaveSimple(int simple) {
+            int first = ast.firstChild(simple);
+            int operator = ast.token(first) - 2;
+            int second = ast.nextSibling(ast.nextSibling(first));
+            if (tokens.type(operator) == TokenType.BINOP) {
+                ast.setValueType(simple, binaryType(operator, ast.valueType(first), ast.valueType(second)));
+            } else {
+                if (ast.valueType(first) != null && ast.valueType(second) != null) {
+                    error(operator, "Invalid type for unary operation '" + tokens.text(operator) + "'.");
                 }
-    
-                int paramStartIndex = i + 1; // Start of parameters
-                int paramEndIndex = paramStartIndex;
-    
-                while (paramEndIndex < tokens.size() && tokens.get(paramEndIndex).type != TokenType.RPAREN) {
-                    paramEndIndex++;
+                ast.setValueType(simple, null);
+            }
+        }
+
+        // BINOP ( SIMPLE , BINOP ( SIMPLE ), under the "op (" of the COND, or
+        // UNOP ( SIMPLE )
+        private void leaveComposite(int composite) {
+            int first = ast.firstChild(composite);
+            int left = ast.child(composite, NodeKind.SIMPLE);
+            if (tokens.type(ast.token(first)) == TokenType.UNOP) {
+                ast.setValueType(composite, unaryType(first, left));
+                return;
+            }
+            int right = left;
+            do {
+                right = ast.nextSibling(right);
+            } while (!ast.is(right, NodeKind.SIMPLE));
+            ast.setValueType(composite, binaryType(ast.token(first) - 2, ast.valueType(left), ast.valueType(right)));
+        }
+
+        // VNAME = TERM, or VNAME < input
+        private void leaveAssign(int assign) {
+            int name = ast.firstChild(assign);
+            Type variable = ast.valueType(name);
+            int term = ast.nextSibling(name);
+            if (variable == null) {
+                return;
+            }
+            if (term < 0) {
+                if (variable != Type.NUM) {
+                    error(ast.token(name), "Variable '" + ast.text(name) + "' is " + variable + " and cannot take input.");
                 }
-    
-                if (paramEndIndex < tokens.size()) {
-                    List<Token> params = tokens.subList(paramStartIndex, paramEndIndex);
-                  
-                } else {
-                    errors.add("Error: Missing closing parenthesis for function call '" + functionName + "'.");
+                return;
+            }
+            Type value = ast.valueType(term);
+            if (value != null && value != variable) {
+                error(ast.token(name), "Type mismatch: cannot assign " + value + " to " + variable + ".");
+            }
+        }
+
+        // A call on its own must be to a void function; print takes a num or a
+        // text; return gives the function's num result
+        private void leaveCommand(int command) {
+            int child = ast.firstChild(command);
+            if (child < 0) {
+                return; // skip, halt
+            }
+            if (ast.is(child, NodeKind.CALL)) {
+                Type result = ast.valueType(child);
+                if (result != null && result != Type.VOID) {
+                    int call = ast.token(ast.firstChild(child));
+                    error(call, "Function '" + tokens.text(call) + "' returns " + result + ", which is not used.");
                 }
+                return;
+            }
+            if (!ast.isLeaf(child) || tokens.type(ast.token(child) - 1) != TokenType.RETURN) {
+                return;
+            }
+            int token = ast.token(child) - 1;
+            FunctionSignature function = functionDepth == 0 ? null : functions[functionDepth - 1];
+            Type value = ast.valueType(child);
+            if (functionDepth == 0) {
+                error(token, "'return' is only allowed inside a function.");
+            } else if (function == null || value == null) {
+                return;
+            } else if (function.getReturnType() == Type.VOID) {
+                error(token, "Function '" + function.getFunctionName() + "' is void and cannot return a value.");
+            } else if (value != function.getReturnType()) {
+                error(token, "Function '" + function.getFunctionName() + "' must return " + function.getReturnType() + ", not " + value + ".");
+            }
+        }
+
+        // Operand and result types come from Type, as in the parser
+        private Type unaryType(int operatorLeaf, int operand) {
+            int operator = ast.token(operatorLeaf);
+            Type type = ast.valueType(operand);
+            if (type == null) {
+                return null;
+            }
+            String text = tokens.text(operator);
+            if (type != Type.operandsOf(text)) {
+                error(operator, "Invalid type for unary operation '" + text + "'.");
+                return null;
+            }
+            return Type.resultOf(text);
+        }
+
+        private Type binaryType(int operator, Type left, Type right) {
+            if (left == null || right == null) {
+                return null;
+            }
+            String text = tokens.text(operator);
+            Type operands = Type.operandsOf(text);
+            if (left != operands || right != operands) {
+                error(operator, "Invalid types for binary operation '" + text + "'.");
+                return null;
+            }
+            return Type.resultOf(text);
+        }
+
+        private void defer(int unit) {
+            if (deferredCount == deferred.length) {
+                deferred = Arrays.copyOf(deferred, deferredCount * 2);
             }
+            deferred[deferredCount++] = unit;
         }
+
+        private FunctionSignature function(int nameId) {
+            FunctionSignature signature = functionTable.get(nameId);
+            if (functionsRead != null) {
+                functionsRead.put(nameId, signature == null ? null : signature.getReturnType());
+            }
+            return signature;
+        }
+
+        private void error(int token, String message) {
+            found.add(new Diagnostics.Diagnostic(Diagnostics.Kind.TYPE, token, message));
+        }
+    }
+
+    // The operand after the next ARG node following child; an ARG is an empty
+    // node next to its operand
+    private int operand(int child) {
+        while (!ast.is(child, NodeKind.ARG)) {
+            child = ast.nextSibling(child);
+        }
+        return ast.nextSibling(child);
+    }
+
+    // Token of the first leaf of a unit
+    private int firstToken(int unit) {
+        int node = unit;
+        while (!ast.isLeaf(node)) {
+            node = ast.firstChild(node);
+        }
+        return ast.token(node);
     }
-    
 
-    private void checkPrintStatement(List<Token> tokens) {
-        // Check that the argument of print is a valid type (either variable or constant)
-        if (tokens.size() < 2 || !isValidOperand(tokens.get(1))) {
-            errors.add("Error: Invalid argument in print statement.");
+    // Copies the entries of read into ids and types, which have its size
+    private static void entries(IntMap<Type> read, int[] ids, Type[] types) {
+        int[] next = new int[1];
+        read.forEach((id, type) -> {
+            ids[next[0]] = id;
+            types[next[0]++] = type;
+        });
+    }
+
+    private void report(List<Diagnostics.Diagnostic> found, Diagnostics diagnostics) {
+        for (Diagnostics.Diagnostic error : found) {
+            errors.add("Error: " + error.message);
+            if (diagnostics != null) {
+                diagnostics.report(error.kind, error.token, error.message);
+            }
         }
     }
 
@@ -220,10 +562,10 @@ public class RecSPLTypeChecker {
             for (String error : errors) {
                 System.err.println(error);
             }
-            return false; 
+            return false;
         } else {
             System.out.println("Type checking completed successfully. No errors found.");
-            return true; 
+            return true;
         }
     }
 }
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks that the parser and RecSPLTypeChecker agree on the types of
+// expressions: each program is parsed with its errors collected, then the
+// checker runs over the same tree, and both must report the same errors.
+// Run with: java RecSPLTypeCheckerTest
+
+public class RecSPLTypeCheckerTest {
+
+    // One operation of each operator, with operands of the types it takes
+    private static final String[] OPERATIONS = {
+        "add(1, 2)", "sub(1, 2)", "mul(1, 2)", "div(1, 2)", "sqrt(4)",
+        "eq(1, 2)", "grt(1, 2)",
+        "and(eq(1, 1), grt(2, 1))", "or(eq(1, 1), grt(2, 1))", "not(eq(1, 1))"
+    };
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        for (String operation : OPERATIONS) {
+            passed &= checkAgree("V_n = " + operation, program("V_n = " + operation + ";"));
+        }
+        passed &= checkReportedOnce("undeclared variable", program("V_n = add(V_u, 1);"), "Variable V_u not declared.");
+        System.out.println(passed ? "All checks passed." : "Some checks failed.");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static String program(String instruction) {
+        return String.join("\n",
+                "main",
+                "num V_n ,",
+                "begin",
+                instruction,
+                "end");
+    }
+
+    private static boolean checkAgree(String name, String source) throws Exception {
+        TokenBuffer tokens = TokenBuffer.lex(source);
+        Diagnostics parsed = new Diagnostics(tokens);
+        RecSPLParser parser = new RecSPLParser(tokens, parsed);
+        parser.parseProgram();
+        Diagnostics checked = new Diagnostics(tokens);
+        new RecSPLTypeChecker(parser.functionTable, checked).check(parser.syntaxTree);
+        List<String> parserErrors = messages(parsed);
+        List<String> checkerErrors = messages(checked);
+        boolean passed = parserErrors.equals(checkerErrors);
+        System.out.println((passed ? "PASS " : "FAIL ") + name + ": parser " + parserErrors + ", checker " + checkerErrors);
+        return passed;
+    }
+
+    // The parser reports the error and the checker adds nothing to it
+    private static boolean checkReportedOnce(String name, String source, String message) throws Exception {
+        TokenBuffer tokens = TokenBuffer.lex(source);
+        Diagnostics parsed = new Diagnostics(tokens);
+        RecSPLParser parser = new RecSPLParser(tokens, parsed);
+        parser.parseProgram();
+        Diagnostics checked = new Diagnostics(tokens);
+        new RecSPLTypeChecker(parser.functionTable, checked).check(parser.syntaxTree);
+        List<Diagnostics.Diagnostic> parserErrors = parsed.all();
+        boolean passed = parserErrors.size() == 1 && parserErrors.get(0).message.equals(message) && checked.all().isEmpty();
+        System.out.println((passed ? "PASS " : "FAIL ") + name + ": parser " + messages(parsed) + ", checker " + messages(checked));
+        return passed;
+    }
+
+    private static List<String> messages(Diagnostics diagnostics) {
+        List<String> messages = new ArrayList<>();
+        for (Diagnostics.Diagnostic diagnostic : diagnostics.all()) {
+            messages.add(diagnostics.format(diagnostic));
+        }
+        return messages;
+    }
+}
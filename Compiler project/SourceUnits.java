@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Quick pre-scan of a token stream for its top-level parse units: the main
+// ALGO block (begin ... end) and each top-level function DECL.
+//
+// Only keywords are looked at. A DECL opens at "num|void FNAME" and closes at
+// the "end" that ends its BODY; begin/end pairs and nested DECLs in between are
+// matched by depth counting. Nothing is checked beyond that, so for broken
+// input the boundaries are only a guess and the real parse decides.
+
+public final class SourceUnits {
+
+    public static final int ALGO = 0;
+    public static final int DECL = 1;
+
+    private SourceUnits() {
+    }
+
+    // Units in tokens[from, to), in source order, as {kind, firstToken, lastToken}
+    public static List<int[]> scan(TokenBuffer tokens, int from, int to) {
+        List<int[]> units = new ArrayList<>();
+        int depth = 0;
+        int unitStart = -1;
+        int unitKind = ALGO;
+        for (int i = from; i < to; i++) {
+            TokenType type = tokens.type(i);
+            boolean opensDecl = (type == TokenType.NUM || type == TokenType.VOID) && tokens.isType(i + 1, TokenType.FNAME);
+            if (type == TokenType.BEGIN || opensDecl) {
+                if (depth == 0) {
+                    unitStart = i;
+                    unitKind = opensDecl ? DECL : ALGO;
+                }
+                depth++;
+            } else if (type == TokenType.END && depth > 0) {
+                depth--;
+                if (depth == 0) {
+                    units.add(new int[] {unitKind, unitStart, i});
+                }
+            }
+        }
+        return units;
+    }
+
+    public static List<int[]> scan(TokenBuffer tokens) {
+        return scan(tokens, 0, tokens.size());
+    }
+}
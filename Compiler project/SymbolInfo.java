@@ -1,17 +1,29 @@
 
 public class SymbolInfo {
 
-    String type;
+    Type type;
     Object value;
     String internalName;
+    // Frame depth and slot of the variable (see VariableSlots), or -1
+    final int depth;
+    final int slot;
 
-    SymbolInfo(String type, Object value, String internalName) {
+    SymbolInfo(Type type, Object value, String internalName) {
         this.type = type;
         this.value = value;
         this.internalName = internalName;
+        this.depth = -1;
+        this.slot = -1;
     }
 
-    public String getType() {
+    SymbolInfo(Type type, String internalName, int depth, int slot) {
+        this.type = type;
+        this.internalName = internalName;
+        this.depth = depth;
+        this.slot = slot;
+    }
+
+    public Type getType() {
         return type;
     }
 
@@ -23,4 +35,12 @@ public class SymbolInfo {
  
        return internalName;
     }
-}
\ No newline at end of file
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+}
@@ -1,107 +1,284 @@
+import java.util.Arrays;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Stack;
+// Scoped symbol table kept flat: one open-addressing table maps a NamePool id
+// to the innermost entry declaring it, and each entry links to the entry it
+// shadows. Entries are appended in declaration order, so the entries of the
+// innermost scope are the tail of the list and double as its undo log:
+// exitScope unlinks just those and restores whatever they shadowed.
+//
+// A lookup is one probe whatever the nesting depth, and nothing is locked, so
+// a table is for one thread at a time. Several threads can share a table that
+// none of them changes, e.g. as the parent of their own layered tables.
 
 public class SymbolTable {
 
-    // Stack to manage scopes (each scope is a map of variable names to their type and value)
-    final Stack<Map<String, SymbolInfo>> symbolTableStack;
+    public interface SymbolConsumer {
+        void accept(int nameId, SymbolInfo info);
+    }
+
+    private static final int EMPTY = -1;
+
+    // Shared with the TokenBuffer, so token symbol ids can be used directly
+    final NamePool names;
+
+    // Table looked in for names this one does not declare, or null; it is
+    // only read through this table
+    private final SymbolTable parent;
+
+    // Open-addressing table from name id to its innermost entry (or EMPTY
+    // once every entry for the name has gone out of scope)
+    private int[] keys;
+    private int[] heads;
+    private int keyCount;
+
+    // Entries, in declaration order
+    private SymbolInfo[] infos;
+    private int[] nameIds;
+    private int[] shadowed;   // entry this one hides, or EMPTY
+    private int[] outermost;  // outermost entry for the same name
+    private int[] scopes;     // scope depth the entry was declared at
+    private int entryCount;
+
+    // First entry of each open scope; scope 0 is the global scope
+    private int[] scopeStarts;
+    private int depth;
 
-    // Inner class to store type and value of each symbol
     // Constructor
     public SymbolTable() {
-        this.symbolTableStack = new Stack<>();
+        this(new NamePool());
+    }
+
+    public SymbolTable(NamePool names) {
+        this(names, null);
+    }
+
+    private SymbolTable(NamePool names, SymbolTable parent) {
+        this.names = names;
+        this.parent = parent;
+        keys = new int[64];
+        Arrays.fill(keys, EMPTY);
+        heads = new int[64];
+        infos = new SymbolInfo[32];
+        nameIds = new int[32];
+        shadowed = new int[32];
+        outermost = new int[32];
+        scopes = new int[32];
+        scopeStarts = new int[8];
         // Initialize with a global scope (root scope)
-        this.symbolTableStack.push(new HashMap<>());
+        depth = 1;
     }
 
-    // Method to enter a new scope (pushes a new map onto the stack)
+    public NamePool names() {
+        return names;
+    }
+
+    // New table whose only scope holds this table's global symbols
+    public SymbolTable globalScopeCopy() {
+        SymbolTable copy = new SymbolTable(names);
+        int end = depth > 1 ? scopeStarts[1] : entryCount;
+        for (int entry = 0; entry < end; entry++) {
+            copy.addSymbol(nameIds[entry], infos[entry]);
+        }
+        return copy;
+    }
+
+    // New, empty table whose lookups fall back to this one's symbols, which
+    // must not change while the new table is in use
+    public SymbolTable newLayer() {
+        return new SymbolTable(names, this);
+    }
+
+    // New table with the same scopes; the SymbolInfo entries are shared
+    public SymbolTable copy() {
+        SymbolTable copy = new SymbolTable(names, parent);
+        copy.keys = keys.clone();
+        copy.heads = heads.clone();
+        copy.keyCount = keyCount;
+        copy.infos = infos.clone();
+        copy.nameIds = nameIds.clone();
+        copy.shadowed = shadowed.clone();
+        copy.outermost = outermost.clone();
+        copy.scopes = scopes.clone();
+        copy.entryCount = entryCount;
+        copy.scopeStarts = scopeStarts.clone();
+        copy.depth = depth;
+        return copy;
+    }
+
+    // Open every scope other has above its global scope, with the same
+    // symbols, on top of this table's scopes
+    public void appendScopes(SymbolTable other) {
+        for (int scope = 1; scope < other.depth; scope++) {
+            enterScope();
+            int end = scope + 1 < other.depth ? other.scopeStarts[scope + 1] : other.entryCount;
+            for (int entry = other.scopeStarts[scope]; entry < end; entry++) {
+                addSymbol(other.nameIds[entry], other.infos[entry]);
+            }
+        }
+    }
+
+    // Symbols of the global scope, in declaration order
+    public void forEachGlobal(SymbolConsumer consumer) {
+        int end = depth > 1 ? scopeStarts[1] : entryCount;
+        for (int entry = 0; entry < end; entry++) {
+            consumer.accept(nameIds[entry], infos[entry]);
+        }
+    }
+
+    // Symbols of every scope above the global one, outermost scope first
+    public void forEachLocal(SymbolConsumer consumer) {
+        int start = depth > 1 ? scopeStarts[1] : entryCount;
+        for (int entry = start; entry < entryCount; entry++) {
+            consumer.accept(nameIds[entry], infos[entry]);
+        }
+    }
+
+    // Method to enter a new scope
     public void enterScope() {
-        symbolTableStack.push(new HashMap<>());
+        if (depth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+        }
+        scopeStarts[depth++] = entryCount;
     }
 
-    // Method to exit the current scope (pops the map from the stack)
+    // Method to exit the current scope; only its own symbols are undone
     public void exitScope() {
-        if (!symbolTableStack.isEmpty()) {
-            symbolTableStack.pop();
-        } else {
+        if (depth == 0) {
             throw new RuntimeException("No scope to exit.");
         }
+        depth--;
+        int start = scopeStarts[depth];
+        while (entryCount > start) {
+            int entry = --entryCount;
+            heads[find(nameIds[entry])] = shadowed[entry];
+            infos[entry] = null;
+        }
     }
 
     // Add a symbol (variable) with its type and value to the current scope
-    public void addSymbol(String name, String type, Object value) {
-        if (symbolTableStack.isEmpty()) {
+    public void addSymbol(String name, Type type, Object value) {
+        addSymbol(names.intern(name), type, value);
+    }
+
+    public void addSymbol(int nameId, Type type, Object value) {
+        addSymbol(nameId, new SymbolInfo(type, value, names.name(nameId)));
+    }
+
+    void addSymbol(int nameId, SymbolInfo info) {
+        if (depth == 0) {
             throw new RuntimeException("No active scope.");
         }
-        symbolTableStack.peek().put(name, new SymbolInfo(type, value, name));
+        int slot = slot(nameId);
+        int head = heads[slot];
+        if (head != EMPTY && scopes[head] == depth - 1) {
+            // Declared again in the same scope: replace it
+            infos[head] = info;
+            return;
+        }
+        if (entryCount == infos.length) {
+            int capacity = entryCount * 2;
+            infos = Arrays.copyOf(infos, capacity);
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            shadowed = Arrays.copyOf(shadowed, capacity);
+            outermost = Arrays.copyOf(outermost, capacity);
+            scopes = Arrays.copyOf(scopes, capacity);
+        }
+        int entry = entryCount++;
+        infos[entry] = info;
+        nameIds[entry] = nameId;
+        shadowed[entry] = head;
+        outermost[entry] = head != EMPTY ? outermost[head] : entry;
+        scopes[entry] = depth - 1;
+        heads[slot] = entry;
     }
 
-    public void add(String name, String type) {
-        if (symbolTableStack.isEmpty()) {
-            throw new RuntimeException("No active scope.");
+    public void add(String name, Type type) {
+        addSymbol(name, type, null);
+    }
+
+    // Symbol with this name id in the closest scope, or null
+    public SymbolInfo lookup(int nameId) {
+        int slot = find(nameId);
+        if (slot < 0 || heads[slot] == EMPTY) {
+            return parent == null ? null : parent.lookup(nameId); // Return null if symbol is not found
         }
-        symbolTableStack.peek().put(name, new SymbolInfo(type, null, name));
+        return infos[heads[slot]];
     }
 
-    // Get the type of a symbol (variable) from the closest scope
-    public String getType(String name) {
-        for (int i = symbolTableStack.size() - 1; i >= 0; i--) {
-            if (symbolTableStack.get(i).containsKey(name)) {
-                return symbolTableStack.get(i).get(name).type;
-            }
+    public SymbolInfo lookup(String name) {
+        int nameId = names.find(name);
+        return nameId < 0 ? null : lookup(nameId);
+    }
+
+    // Symbol with this name id in the outermost scope declaring it, or null
+    public SymbolInfo lookupOutermost(int nameId) {
+        SymbolInfo outer = parent == null ? null : parent.lookupOutermost(nameId);
+        if (outer != null) {
+            return outer;
+        }
+        int slot = find(nameId);
+        if (slot < 0 || heads[slot] == EMPTY) {
+            return null;
+        }
+        return infos[outermost[heads[slot]]];
+    }
+
+    // Whether the global scope declares this name id
+    public boolean isGlobal(int nameId) {
+        if (parent != null) {
+            return parent.isGlobal(nameId);
         }
-        return null; // Return null if symbol is not found
+        int slot = find(nameId);
+        return slot >= 0 && heads[slot] != EMPTY && scopes[outermost[heads[slot]]] == 0;
+    }
+
+    // Check if a symbol is declared in the innermost scope
+    public boolean isDeclaredInCurrentScope(int nameId) {
+        int slot = find(nameId);
+        return slot >= 0 && heads[slot] != EMPTY && scopes[heads[slot]] == depth - 1;
+    }
+
+    // Get the type of a symbol (variable) from the closest scope
+    public Type getType(String name) {
+        SymbolInfo info = lookup(name);
+        return info != null ? info.type : null;
     }
 
     // Get the value of a symbol (variable) from the closest scope
     public Object getValue(String name) {
-        for (int i = symbolTableStack.size() - 1; i >= 0; i--) {
-            if (symbolTableStack.get(i).containsKey(name)) {
-                return symbolTableStack.get(i).get(name).value;
-            }
-        }
-        return null; // Return null if symbol is not found
+        SymbolInfo info = lookup(name);
+        return info != null ? info.value : null;
     }
 
     public String getVariableName(String name) {
-        for (int i = symbolTableStack.size() - 1; i >= 0; i--) {
-            if (symbolTableStack.get(i).containsKey(name)) {
-                return symbolTableStack.get(i).get(name).internalName;
-            }
-        }
-        return null; // Return null if symbol is not found
+        SymbolInfo info = lookup(name);
+        return info != null ? info.internalName : null;
     }
 
     // Update the value of a symbol in the closest scope where it is found
     public void updateValue(String name, Object value) {
-        for (int i = symbolTableStack.size() - 1; i >= 0; i--) {
-            if (symbolTableStack.get(i).containsKey(name)) {
-                symbolTableStack.get(i).get(name).value = value;
-                return;
-            }
+        SymbolInfo info = lookup(name);
+        if (info == null) {
+            throw new RuntimeException("Variable " + name + " not found.");
         }
-        throw new RuntimeException("Variable " + name + " not found.");
+        info.value = value;
     }
 
     // Check if a symbol exists in any active scope
     public boolean containsSymbol(String name) {
-        for (int i = symbolTableStack.size() - 1; i >= 0; i--) {
-            if (symbolTableStack.get(i).containsKey(name)) {
-                return true;
-            }
-        }
-        return false;
+        return lookup(name) != null;
+    }
+
+    public boolean containsSymbol(int nameId) {
+        return lookup(nameId) != null;
     }
 
     // Print all symbols in the current scope (for debugging)
     public void printCurrentScope() {
         System.out.println("Current Scope Symbol Table:");
-        if (!symbolTableStack.isEmpty()) {
-            Map<String, SymbolInfo> currentScope = symbolTableStack.peek();
-            for (Map.Entry<String, SymbolInfo> entry : currentScope.entrySet()) {
-                System.out.println("Name: " + entry.getKey() + ", Type: " + entry.getValue().type + ", Value: " + entry.getValue().value);
+        if (depth > 0) {
+            for (int entry = scopeStarts[depth - 1]; entry < entryCount; entry++) {
+                System.out.println("Name: " + names.name(nameIds[entry]) + ", Type: " + infos[entry].type + ", Value: " + infos[entry].value);
             }
         } else {
             System.out.println("No active scope.");
@@ -109,12 +286,70 @@ public class SymbolTable {
     }
     // Add this method to your SymbolTable class
 
-    public void link(String type, String name) {
+    public void link(Type type, String name) {
+        int nameId = names.intern(name);
         // Ensure we're not overwriting an existing symbol in the current scope
-        if (symbolTableStack.peek().containsKey(name)) {
+        if (isDeclaredInCurrentScope(nameId)) {
             throw new RuntimeException("Symbol " + name + " is already defined in the current scope.");
         }
         // Add the symbol with a type but no initial value (value is set to null)
-        addSymbol(name, type, null);
+        addSymbol(nameId, type, null);
+    }
+
+    // Slot of nameId in the name table, or -1
+    private int find(int nameId) {
+        int mask = keys.length - 1;
+        int slot = mix(nameId) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == nameId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Slot of nameId in the name table, adding the name if it is new
+    private int slot(int nameId) {
+        int slot = find(nameId);
+        if (slot >= 0) {
+            return slot;
+        }
+        if ((keyCount + 1) * 2 > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        slot = mix(nameId) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = nameId;
+        heads[slot] = EMPTY;
+        keyCount++;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        heads = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    private static int mix(int nameId) {
+        int h = nameId * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 }
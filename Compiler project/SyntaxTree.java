@@ -1,65 +1,128 @@
-
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public class SyntaxTree {
 
-    Node root;
-    List<Node> innerNodes = new ArrayList<>();
-    List<LeafNode> leafNodes = new ArrayList<>();
+    final Ast ast;
+    int root;
 
-    public SyntaxTree(Node root) {
+    public SyntaxTree(Ast ast, int root) {
+        this.ast = ast;
         this.root = root;
     }
 
-    public void addInnerNode(Node node) {
-        innerNodes.add(node);
+    // Drop nodes [first, last] of the arena. Used when an incremental re-parse
+    // replaces a subtree: a unit's nodes are added one after another, and that
+    // includes nodes that are not reachable from the unit's root.
+    public void retire(int first, int last) {
+        ast.retire(first, last);
+    }
+
+    // Once most of the arena is retired, squeeze it out. Returns the new index
+    // of each old node (see Ast.compact), or null if nothing was moved.
+    public int[] compactIfSparse() {
+        if (ast.retiredCount() * 2 <= ast.size()) {
+            return null;
+        }
+        int[] moved = ast.compact();
+        root = moved[root];
+        return moved;
     }
 
-    public void addLeafNode(LeafNode leaf) {
-        leafNodes.add(leaf);
+    // The unid written for a node. The parser gives PROG the same unid as
+    // ROOT, so a child of the root with the root's unid is written as one more.
+    private int writtenUnid(int node) {
+        int unid = ast.unid(node);
+        if (ast.parent(node) == root && unid == ast.unid(root)) {
+            ++unid;
+        }
+        return unid;
     }
 
+    // Written node by node to a buffered file writer, so nothing the size of
+    // the tree is built in memory. IN records are written for listed nodes that
+    // have a parent and LEAF records for leaves, both in the order the nodes
+    // were added.
     public void toXML(String outputFilePath) throws IOException {
-        StringBuilder xml = new StringBuilder("<SYNTREE>\n");
+        Ast.Cursor child = ast.cursor(root);
+        try (BufferedWriter xml = Files.newBufferedWriter(Paths.get(outputFilePath), StandardCharsets.UTF_8)) {
+            xml.write("<SYNTREE>\n");
+
+            // Root Node
+            xml.write("<ROOT>\n");
+            xml.write("<UNID>" + ast.unid(root) + "</UNID>\n");
+            xml.write("<SYMB>" + ast.symbol(root) + "</SYMB>\n");
+            xml.write("<CHILDREN>\n");
+            writeChildren(xml, child.moveTo(root));
+            xml.write("</CHILDREN>\n");
+            xml.write("</ROOT>\n");
 
-        // Root Node
-        xml.append("<ROOT>\n");
-        xml.append("<UNID>").append(root.unid).append("</UNID>\n");
-        xml.append("<SYMB>").append(root.symbol).append("</SYMB>\n");
-        xml.append("<CHILDREN>\n");
-        for (Node childId : root.children) {
-            if (childId.unid == root.unid) {
-                ++childId.unid;
+            // Inner Nodes
+            xml.write("<INNERNODES>\n");
+            for (int node = 0; node < ast.size(); node++) {
+                if (ast.isListed(node) && !ast.isRetired(node) && ast.parent(node) >= 0) {
+                    xml.write("<IN>\n");
+                    xml.write("<PARENT>");
+                    xml.write(Integer.toString(writtenUnid(ast.parent(node))));
+                    xml.write("</PARENT>\n");
+                    xml.write("<UNID>");
+                    xml.write(Integer.toString(writtenUnid(node)));
+                    xml.write("</UNID>\n");
+                    xml.write("<SYMB>");
+                    xml.write(ast.symbol(node));
+                    xml.write("</SYMB>\n");
+                    xml.write("<CHILDREN>\n");
+                    writeChildren(xml, child.moveTo(node));
+                    xml.write("</CHILDREN>\n");
+                    xml.write("</IN>\n");
+                }
             }
-            xml.append("<ID>").append(childId.unid).append("</ID>\n");
-        }
-        xml.append("</CHILDREN>\n");
-        xml.append("</ROOT>\n");
+            xml.write("</INNERNODES>\n");
 
-        // Inner Nodes
-        xml.append("<INNERNODES>\n");
-        for (Node node : innerNodes) {
-            xml.append(node.toXML());
-        }
-        xml.append("</INNERNODES>\n");
+            // Leaf Nodes
+            xml.write("<LEAFNODES>\n");
+            for (int node = 0; node < ast.size(); node++) {
+                if (ast.isLeaf(node) && !ast.isRetired(node)) {
+                    int parent = ast.parent(node);
+                    xml.write("<LEAF>\n");
+                    xml.write("<PARENT>");
+                    xml.write(Integer.toString(parent >= 0 ? ast.unid(parent) : -1));
+                    xml.write("</PARENT>\n");
+                    xml.write("<UNID>");
+                    xml.write(Integer.toString(ast.unid(node)));
+                    xml.write("</UNID>\n");
+                    xml.write("<TERMINAL>");
+                    xml.write(ast.text(node));
+                    xml.write("</TERMINAL>\n");
+                    xml.write("</LEAF>\n");
+                }
+            }
+            xml.write("</LEAFNODES>\n");
 
-        // Leaf Nodes
-        xml.append("<LEAFNODES>\n");
-        for (LeafNode leaf : leafNodes) {
-            xml.append(leaf.toXML());
+            xml.write("</SYNTREE>");
         }
-        xml.append("</LEAFNODES>\n");
-
-        xml.append("</SYNTREE>");
+    }
 
-        // Write the XML content to the specified output file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
-            writer.write(xml.toString());
+    // A SHARED node lists the node it repeats as its only child
+    private void writeChildren(BufferedWriter xml, Ast.Cursor cursor) throws IOException {
+        if (cursor.is(NodeKind.SHARED)) {
+            xml.write("<ID>");
+            xml.write(Integer.toString(writtenUnid(ast.canonical(cursor.node()))));
+            xml.write("</ID>\n");
+        } else if (cursor.toFirstChild()) {
+            do {
+                xml.write("<ID>");
+                xml.write(Integer.toString(writtenUnid(cursor.node())));
+                xml.write("</ID>\n");
+            } while (cursor.toNextSibling());
         }
+    }
 
+    // Compact, memory-mappable alternative to toXML (see BinaryFormat)
+    public void toBinary(String outputFilePath) throws IOException {
+        BinaryFormat.writeTree(ast, root, outputFilePath);
     }
 }
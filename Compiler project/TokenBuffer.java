@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Packed token stream: one byte of token kind plus source offset and length
+// per token, instead of one Token object (and String copy) per token.
+//
+// Token ids are implicit: the token at index i has id i + 1, which is what
+// the lexer has always assigned. Text is produced on demand from the source;
+// keywords and punctuation come back as shared constant strings, and VNAME/FNAME
+// tokens are interned into a NamePool while lexing, so each also carries a
+// dense symbol id.
+
+public final class TokenBuffer {
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final CharSequence source;
+    private final NamePool names;
+    private byte[] kinds;
+    private int[] offsets;
+    private int[] lengths;
+    // NamePool id of VNAME/FNAME tokens, -1 for every other token
+    private int[] symbols;
+    // Only used for buffers built from an existing token list, which has no source
+    private String[] texts;
+    private int size;
+    // Source range being lexed into this buffer, if any. The arrays start small
+    // and, when full, grow to the token count the density so far projects for
+    // the whole range, instead of being sized from the source length up front.
+    private int scanFrom;
+    private int scanTo;
+
+    private TokenBuffer(CharSequence source, NamePool names, int capacity) {
+        this.source = source;
+        this.names = names;
+        this.kinds = new byte[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.symbols = new int[capacity];
+    }
+
+    // Lex the source with the DFA scanner straight into a buffer
+    public static TokenBuffer lex(CharSequence source) {
+        return lex(source, new NamePool());
+    }
+
+    public static TokenBuffer lex(CharSequence source, NamePool names) {
+        TokenBuffer buffer = new TokenBuffer(source, names, INITIAL_CAPACITY);
+        buffer.scanFrom = 0;
+        buffer.scanTo = source.length();
+        RecSPLScanner.scan(source, buffer::add);
+        return buffer;
+    }
+
+    // Lex only source[from, to); token offsets stay relative to the whole source
+    public static TokenBuffer lex(CharSequence source, int from, int to, NamePool names) {
+        TokenBuffer buffer = new TokenBuffer(source, names, INITIAL_CAPACITY);
+        buffer.scanFrom = from;
+        buffer.scanTo = to;
+        RecSPLScanner.scan(source, from, to, buffer::add);
+        return buffer;
+    }
+
+    // Join buffers lexed from consecutive ranges of the same source. Each part
+    // has its own NamePool; the names are re-interned part by part, which gives
+    // them the same ids a single sequential pass would have given them.
+    public static TokenBuffer concat(CharSequence source, NamePool names, List<TokenBuffer> parts) {
+        int total = 0;
+        for (TokenBuffer part : parts) {
+            total += part.size;
+        }
+        TokenBuffer buffer = new TokenBuffer(source, names, Math.max(INITIAL_CAPACITY, total));
+        for (TokenBuffer part : parts) {
+            int[] remap = new int[part.names.size()];
+            for (int id = 0; id < remap.length; id++) {
+                remap[id] = names.intern(part.names.name(id));
+            }
+            int at = buffer.size;
+            System.arraycopy(part.kinds, 0, buffer.kinds, at, part.size);
+            System.arraycopy(part.offsets, 0, buffer.offsets, at, part.size);
+            System.arraycopy(part.lengths, 0, buffer.lengths, at, part.size);
+            for (int i = 0; i < part.size; i++) {
+                int symbol = part.symbols[i];
+                buffer.symbols[at + i] = symbol >= 0 ? remap[symbol] : -1;
+            }
+            buffer.size += part.size;
+        }
+        return buffer;
+    }
+
+    // Copy of this buffer over newSource, with tokens[from, to) replaced by the
+    // given tokens (lexed from newSource with the same NamePool) and the offsets
+    // of all later tokens moved by offsetDelta. Only for lexed buffers.
+    public TokenBuffer splice(CharSequence newSource, int from, int to, TokenBuffer replacement, int offsetDelta) {
+        int tail = size - to;
+        TokenBuffer buffer = new TokenBuffer(newSource, names, Math.max(INITIAL_CAPACITY, from + replacement.size + tail));
+        buffer.copyFrom(this, 0, from, 0);
+        buffer.copyFrom(replacement, 0, replacement.size, 0);
+        buffer.copyFrom(this, to, tail, offsetDelta);
+        return buffer;
+    }
+
+    private void copyFrom(TokenBuffer other, int from, int count, int offsetDelta) {
+        System.arraycopy(other.kinds, from, kinds, size, count);
+        System.arraycopy(other.lengths, from, lengths, size, count);
+        System.arraycopy(other.symbols, from, symbols, size, count);
+        for (int i = 0; i < count; i++) {
+            offsets[size + i] = other.offsets[from + i] + offsetDelta;
+        }
+        size += count;
+    }
+
+    // Pack a token list, e.g. the output of the regex lexer
+    public static TokenBuffer of(List<Token> tokens) {
+        TokenBuffer buffer = new TokenBuffer(null, new NamePool(), Math.max(INITIAL_CAPACITY, tokens.size()));
+        buffer.texts = new String[buffer.kinds.length];
+        for (Token token : tokens) {
+            buffer.texts[buffer.size] = token.data;
+            buffer.add(token.type, 0, token.data.length());
+        }
+        return buffer;
+    }
+
+    private void add(TokenType type, int start, int end) {
+        if (size == kinds.length) {
+            int capacity = size + (size >> 1);
+            if (start > scanFrom && scanTo > start) {
+                long projected = (long) size * (scanTo - scanFrom) / (start - scanFrom);
+                capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, projected + (projected >> 4)));
+            }
+            kinds = Arrays.copyOf(kinds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            if (texts != null) {
+                texts = Arrays.copyOf(texts, capacity);
+            }
+        }
+        kinds[size] = (byte) type.ordinal();
+        offsets[size] = texts != null ? -1 : start;
+        lengths[size] = end - start;
+        if (type == TokenType.VNAME || type == TokenType.FNAME) {
+            symbols[size] = texts != null ? names.intern(texts[size]) : names.intern(source, start, end);
+        } else {
+            symbols[size] = -1;
+        }
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Type of the token at index, or null past the end of input
+    public TokenType type(int index) {
+        return index < size ? TYPES[kinds[index]] : null;
+    }
+
+    // Ordinal of the token's type, or the number of token types past the end
+    // of input
+    public int typeOrdinal(int index) {
+        return index < size ? kinds[index] : TYPES.length;
+    }
+
+    public boolean isType(int index, TokenType type) {
+        return index < size && kinds[index] == type.ordinal();
+    }
+
+    // Type of a literal or type keyword token, decided by the scanner's token
+    // kind; null for every other token
+    public Type valueType(int index) {
+        return index < size ? Type.of(TYPES[kinds[index]]) : null;
+    }
+
+    public String text(int index) {
+        if (texts != null) {
+            return texts[index];
+        }
+        if (symbols[index] >= 0) {
+            return names.name(symbols[index]);
+        }
+        int start = offsets[index];
+        return RecSPLScanner.text(source, TYPES[kinds[index]], start, start + lengths[index]);
+    }
+
+    // NamePool id of a VNAME/FNAME token, or -1
+    public int symbol(int index) {
+        return index < size ? symbols[index] : -1;
+    }
+
+    public NamePool names() {
+        return names;
+    }
+
+    public int id(int index) {
+        return index + 1;
+    }
+
+    // Source offset of the token, or -1 if the buffer was built from a token list
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    public CharSequence source() {
+        return source;
+    }
+
+    // Index of the token with the same id, type and text as the given one, or -1
+    public int indexOf(Token token) {
+        int index = token.id - 1;
+        if (index < 0 || index >= size || kinds[index] != token.type.ordinal() || !text(index).equals(token.data)) {
+            return -1;
+        }
+        return index;
+    }
+
+    // Materialise a single token
+    public Token get(int index) {
+        return new Token(type(index), text(index), id(index));
+    }
+
+    public List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(get(i));
+        }
+        return tokens;
+    }
+
+    // Same format as Token.toString(), or "null" past the end of input
+    public String describe(int index) {
+        if (index >= size) {
+            return "null";
+        }
+        return String.format("(%d: %s, \"%s\")", id(index), type(index).name(), text(index));
+    }
+}
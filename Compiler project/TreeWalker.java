@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+// Depth-first walk of an Ast with enter (preorder) and leave (postorder)
+// callbacks. The walk follows the child, sibling and parent links, so it needs
+// no stack however deep the tree is, and it allocates nothing per node.
+//
+// Several visitors can share one walk: each node is entered by every visitor
+// in the order they were given and left in the same order. A visitor whose
+// enter() returns false prunes the node's subtree for itself. It is not called
+// for the nodes below, but its leave() is still called for the node. Subtrees
+// every visitor prunes are not walked at all.
+//
+// SHARED nodes have no children, so an expression kept once is walked once;
+// a visitor that wants to see it at every use follows Ast.canonical itself.
+
+public final class TreeWalker {
+
+    public interface Visitor {
+
+        // Return false to skip the node's children
+        default boolean enter(int node) throws Exception {
+            return true;
+        }
+
+        default void leave(int node) throws Exception {
+        }
+    }
+
+    private final Visitor[] visitors;
+    // Node at which each visitor pruned the walk, or -1
+    private final int[] prunedAt;
+
+    public TreeWalker(Visitor... visitors) {
+        this.visitors = visitors;
+        this.prunedAt = new int[visitors.length];
+    }
+
+    public static void walk(Ast ast, int root, Visitor... visitors) throws Exception {
+        new TreeWalker(visitors).walk(ast, root);
+    }
+
+    // Walk the subtree of root
+    public void walk(Ast ast, int root) throws Exception {
+        Arrays.fill(prunedAt, -1);
+        int node = root;
+        while (true) {
+            if (enter(node) && ast.firstChild(node) >= 0) {
+                node = ast.firstChild(node);
+                continue;
+            }
+            // Leave nodes until one has a next sibling
+            while (true) {
+                leave(node);
+                if (node == root) {
+                    return;
+                }
+                if (ast.nextSibling(node) >= 0) {
+                    node = ast.nextSibling(node);
+                    break;
+                }
+                node = ast.parent(node);
+            }
+        }
+    }
+
+    // Whether any visitor wants the children
+    private boolean enter(int node) throws Exception {
+        boolean descend = false;
+        for (int i = 0; i < visitors.length; i++) {
+            if (prunedAt[i] < 0) {
+                if (visitors[i].enter(node)) {
+                    descend = true;
+                } else {
+                    prunedAt[i] = node;
+                }
+            }
+        }
+        return descend;
+    }
+
+    private void leave(int node) throws Exception {
+        for (int i = 0; i < visitors.length; i++) {
+            if (prunedAt[i] == node) {
+                prunedAt[i] = -1;
+                visitors[i].leave(node);
+            } else if (prunedAt[i] < 0) {
+                visitors[i].leave(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.Arrays;
+
+// Types of RecSPL values, shared by every phase. There is one constant per
+// type, so types are compared with ==; toString gives the name the source
+// and the error messages use.
+
+public enum Type {
+    NUM("num"), TEXT("text"), VOID("void"), BOOL("bool");
+
+    private static final Type[] OF_TOKEN = new Type[TokenType.values().length];
+
+    static {
+        OF_TOKEN[TokenType.NUM.ordinal()] = NUM;
+        OF_TOKEN[TokenType.TEXT.ordinal()] = TEXT;
+        OF_TOKEN[TokenType.VOID.ordinal()] = VOID;
+        // The scanner tells the literals apart: a quoted CONST is text, a
+        // CONST2 is a number
+        OF_TOKEN[TokenType.CONST.ordinal()] = TEXT;
+        OF_TOKEN[TokenType.CONST2.ordinal()] = NUM;
+    }
+
+    // Shared parameter lists of arity 0 to 7
+    private static final Type[][] NUMBERS = new Type[8][];
+
+    static {
+        for (int arity = 0; arity < NUMBERS.length; arity++) {
+            NUMBERS[arity] = new Type[arity];
+            Arrays.fill(NUMBERS[arity], NUM);
+        }
+    }
+
+    private final String name;
+
+    private Type(String name) {
+        this.name = name;
+    }
+
+    // Type a type keyword or a literal stands for, or null for other tokens
+    public static Type of(TokenType tokenType) {
+        return tokenType == null ? null : OF_TOKEN[tokenType.ordinal()];
+    }
+
+    // Type of the value an operator gives, for the parser and the type
+    // checker alike: eq and grt compare nums and give a bool, and, or and not
+    // give a bool, the others a num. Null for a word that is not an operator.
+    public static Type resultOf(String operator) {
+        return switch (operator) {
+            case "not", "and", "or", "eq", "grt" ->
+                BOOL;
+            case "sqrt", "add", "sub", "mul", "div" ->
+                NUM;
+            default ->
+                null;
+        };
+    }
+
+    // Type of the operands an operator takes: bools for not, and and or, nums
+    // for the others
+    public static Type operandsOf(String operator) {
+        return switch (operator) {
+            case "not", "and", "or" ->
+                BOOL;
+            default ->
+                NUM;
+        };
+    }
+
+    // count parameters of type num, which is every RecSPL parameter list.
+    // Not to be modified: lists of the same length are one array.
+    public static Type[] numbers(int count) {
+        if (count < NUMBERS.length) {
+            return NUMBERS[count];
+        }
+        Type[] types = new Type[count];
+        Arrays.fill(types, NUM);
+        return types;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
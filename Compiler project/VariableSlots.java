@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+// Static addresses of the variables of a program, worked out once from the
+// parse tree so that generated code can address a variable directly instead
+// of looking its name up.
+//
+// Every scope with variables has a frame: the globals share frame 0, and each
+// DECL has a frame one deeper than the scope it is declared in, holding its
+// three parameters (slots 0 to 2) and then its locals in declaration order.
+// Every declaration gets a SymbolInfo with its (depth, slot) and an internal
+// name made from them, and every VNAME token, declaration or use, maps to the
+// SymbolInfo it refers to. Names are resolved like the type checker resolves
+// them: a DECL sees the globals, the DECLs it is nested in and its own scope.
+//
+// The resolution is one TreeWalker walk, so it does not recurse however deep
+// the tree is.
+
+public final class VariableSlots {
+
+    private final Ast ast;
+    private final TokenBuffer tokens;
+    // Declaration each VNAME token refers to, by token index; null for other
+    // tokens and for names that are not declared
+    private final SymbolInfo[] variables;
+    // Frame size of each function, by NamePool id of its name
+    private final int[] frameSizes;
+    private int globalCount;
+
+    private VariableSlots(Ast ast) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.variables = new SymbolInfo[tokens.size()];
+        this.frameSizes = new int[tokens.names().size()];
+    }
+
+    public static VariableSlots resolve(SyntaxTree syntaxTree) throws Exception {
+        VariableSlots slots = new VariableSlots(syntaxTree.ast);
+        TreeWalker.walk(syntaxTree.ast, syntaxTree.root, slots.new Resolver());
+        return slots;
+    }
+
+    // Declaration the VNAME token at index refers to, or null
+    public SymbolInfo variable(int token) {
+        return token < variables.length ? variables[token] : null;
+    }
+
+    // Slots in the frame of the function with this name id
+    public int frameSize(int functionNameId) {
+        return functionNameId < frameSizes.length ? frameSizes[functionNameId] : 0;
+    }
+
+    // Slots in frame 0, one per global variable
+    public int globalCount() {
+        return globalCount;
+    }
+
+    private final class Resolver implements TreeWalker.Visitor {
+
+        private final SymbolTable scopes = new SymbolTable(tokens.names());
+        // Next free slot and function name id of each open frame; frame 0 is
+        // the globals'
+        private int[] nextSlots = new int[8];
+        private int[] functions = new int[8];
+        private int depth;
+
+        @Override
+        public boolean enter(int node) {
+            switch (ast.kind(node)) {
+                case GLOBVARS, LOCVARS -> {
+                    // VTYPE VNAME [more declarations]
+                    int vtype = ast.firstChild(node);
+                    declare(ast.nextSibling(vtype), tokens.valueType(ast.token(ast.firstChild(vtype))));
+                }
+                case VNAME ->
+                    // A parameter
+                    declare(ast.firstChild(node), Type.NUM);
+                case DECL -> {
+                    scopes.enterScope();
+                    if (++depth == nextSlots.length) {
+                        nextSlots = Arrays.copyOf(nextSlots, depth * 2);
+                        functions = Arrays.copyOf(functions, depth * 2);
+                    }
+                    nextSlots[depth] = 0;
+                }
+                case HEADER ->
+                    // FTYP FNAME ( ... )
+                    functions[depth] = tokens.symbol(ast.token(ast.nextSibling(ast.firstChild(node))));
+                case LEAF -> {
+                    int token = ast.token(node);
+                    if (tokens.type(token) == TokenType.VNAME && variables[token] == null) {
+                        variables[token] = scopes.lookup(tokens.symbol(token));
+                    }
+                }
+                default -> {
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void leave(int node) {
+            if (ast.is(node, NodeKind.DECL)) {
+                frameSizes[functions[depth]] = nextSlots[depth];
+                depth--;
+                scopes.exitScope();
+            } else if (ast.is(node, NodeKind.GLOBVARS) && depth == 0) {
+                globalCount = nextSlots[0];
+            }
+        }
+
+        // Give the variable declared by leaf the next slot of the innermost
+        // frame
+        private void declare(int leaf, Type type) {
+            int token = ast.token(leaf);
+            int slot = nextSlots[depth]++;
+            SymbolInfo variable = new SymbolInfo(type, "X" + depth + "_" + slot, depth, slot);
+            scopes.addSymbol(tokens.symbol(token), variable);
+            variables[token] = variable;
+        }
+    }
+}